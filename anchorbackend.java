@@ -0,0 +1,100 @@
+package ptrprograms.com.arboardgame
+
+import android.util.Log
+import com.google.ar.core.Anchor
+import com.google.ar.core.Pose
+import com.google.ar.core.Session
+
+//Turns the host's board anchor into an id viewers can resolve, so everyone sees the board in the same place.
+//Callbacks run on whichever thread calls update(), normally the frame update.
+interface AnchorBackend {
+    fun host(anchor: Anchor, callback: (String?) -> Unit)
+    fun resolve(anchorId: String, callback: (Anchor?) -> Unit)
+    fun update()
+}
+
+//ARCore cloud anchors, needs the session configured with CloudAnchorMode.ENABLED and an API key in the manifest
+class CloudAnchorBackend(val session: Session) : AnchorBackend {
+
+    private class Task(val anchor: Anchor, val onHosted: ((String?) -> Unit)?, val onResolved: ((Anchor?) -> Unit)?)
+
+    private val tasks = ArrayList<Task>()
+
+    override fun host(anchor: Anchor, callback: (String?) -> Unit) {
+        tasks.add(Task(session.hostCloudAnchor(anchor), callback, null))
+    }
+
+    override fun resolve(anchorId: String, callback: (Anchor?) -> Unit) {
+        tasks.add(Task(session.resolveCloudAnchor(anchorId), null, callback))
+    }
+
+    override fun update() {
+        val iterator = tasks.iterator()
+        while( iterator.hasNext() ) {
+            val task = iterator.next()
+            val state = task.anchor.cloudAnchorState
+            if( state == Anchor.CloudAnchorState.TASK_IN_PROGRESS ) {
+                continue
+            }
+
+            iterator.remove()
+            if( state.isError ) {
+                Log.w("CloudAnchorBackend", "Cloud anchor failed: $state")
+                task.anchor.detach()
+                task.onHosted?.invoke(null)
+                task.onResolved?.invoke(null)
+            } else {
+                task.onHosted?.invoke(task.anchor.cloudAnchorId)
+                task.onResolved?.invoke(task.anchor)
+            }
+        }
+    }
+}
+
+//Stand-in that needs no cloud: the id is the anchor's pose in the host's world. Viewers only line up with the
+//host if they started tracking from the same spot, which is enough to exercise a shared session end to end.
+class LocalAnchorBackend(val session: Session) : AnchorBackend {
+
+    companion object {
+        const val PREFIX = "local:"
+    }
+
+    private val pending = ArrayList<() -> Unit>()
+
+    override fun host(anchor: Anchor, callback: (String?) -> Unit) {
+        val pose = anchor.pose
+        val anchorId = PREFIX + floatArrayOf(
+            pose.tx(), pose.ty(), pose.tz(),
+            pose.qx(), pose.qy(), pose.qz(), pose.qw()).joinToString(",")
+        pending.add { callback(anchorId) }
+    }
+
+    override fun resolve(anchorId: String, callback: (Anchor?) -> Unit) {
+        val values = if( anchorId.startsWith(PREFIX) ) {
+            anchorId.substring(PREFIX.length).split(",").mapNotNull { it.toFloatOrNull() }
+        } else {
+            emptyList()
+        }
+
+        if( values.size != 7 ) {
+            Log.w("LocalAnchorBackend", "Not a local anchor id: $anchorId")
+            pending.add { callback(null) }
+            return
+        }
+
+        val pose = Pose(floatArrayOf(values[0], values[1], values[2]), floatArrayOf(values[3], values[4], values[5], values[6]))
+        pending.add { callback(session.createAnchor(pose)) }
+    }
+
+    override fun update() {
+        if( pending.isEmpty() ) {
+            return
+        }
+
+        val callbacks = ArrayList(pending)
+        pending.clear()
+        for( callback in callbacks ) {
+            callback()
+        }
+    }
+}
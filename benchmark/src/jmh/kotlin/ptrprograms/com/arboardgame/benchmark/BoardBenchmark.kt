@@ -0,0 +1,84 @@
+package ptrprograms.com.arboardgame.benchmark
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import ptrprograms.com.arboardgame.BoardLayout
+import ptrprograms.com.arboardgame.BoardModel
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+//A board snapshot coming in from Firebase: the diff on its own, and BoardScene's apply path through BoardLayout
+//into a stand-in for the nodes. Creating the nodes themselves needs Sceneform and isn't measured here.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput, Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class BoardBenchmark {
+
+    companion object {
+        const val SNAPSHOTS = 64
+
+        private val PLANETS = arrayOf("Sun", "Mercury", "Venus", "Earth", "Luna", "Mars", "Jupiter", "Saturn", "Neptune", "Uranus")
+    }
+
+    //The nodes BoardScene would take down and build
+    private class Nodes : BoardLayout.Target {
+        val shown = HashMap<String, Int>()
+
+        override fun hide(pieceId: String) {
+            shown.remove(pieceId)
+        }
+
+        override fun show(pieceId: String, slot: Int) {
+            shown[pieceId] = slot
+        }
+    }
+
+    @Param("8", "100", "500")
+    @JvmField
+    var pieces = 0
+
+    private val random = Random(42)
+
+    private val boardModel = BoardModel()
+    private val layout = BoardLayout()
+    private val nodes = Nodes()
+    private val snapshots = ArrayList<Map<String, String?>>()
+    private var nextSnapshot = 0
+
+    @Setup
+    fun setUp() {
+        //Snapshots where about one piece in fifty changes or leaves each time
+        val board = HashMap<String, String?>()
+        for( piece in 1..pieces ) {
+            board[piece.toString()] = PLANETS[random.nextInt(PLANETS.size)]
+        }
+        for( i in 0 until SNAPSHOTS ) {
+            for( change in 0..pieces / 50 ) {
+                val pieceId = (1 + random.nextInt(pieces)).toString()
+                board[pieceId] = if( random.nextInt(6) == 0 ) null else PLANETS[random.nextInt(PLANETS.size)]
+            }
+            snapshots.add(HashMap(board))
+        }
+    }
+
+    @Benchmark
+    fun boardDiff() : Int {
+        val diff = boardModel.update(snapshots[nextSnapshot])
+        nextSnapshot = (nextSnapshot + 1) and (SNAPSHOTS - 1)
+        return diff.size()
+    }
+
+    //As BoardScene.update
+    @Benchmark
+    fun boardApply() : Int {
+        layout.apply(snapshots[nextSnapshot], nodes)
+        nextSnapshot = (nextSnapshot + 1) and (SNAPSHOTS - 1)
+        return nodes.shown.size
+    }
+}
@@ -0,0 +1,133 @@
+package ptrprograms.com.arboardgame.benchmark
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import ptrprograms.com.arboardgame.BillboardMath
+import ptrprograms.com.arboardgame.LodSelector
+import ptrprograms.com.arboardgame.OrbitSystem
+import ptrprograms.com.arboardgame.OrientationMath
+import java.util.concurrent.TimeUnit
+
+//Math that runs for every body on every frame: spin, info card turn, orbits and model detail level.
+//Each call advances by one 60fps frame so nothing is served from a previous result. Scenes with many bodies
+//are set up in their own states so their sizes only multiply the benchmarks that use them.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput, Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class FrameMathBenchmark {
+
+    private val FRAME_SECONDS = 1.0 / 60.0
+
+    //Every RotatingNode in the scene, each with its own tilt and day length
+    @State(Scope.Thread)
+    open class Spinners {
+        @Param("10", "100", "1000")
+        @JvmField
+        var nodes = 0
+
+        lateinit var tilts: FloatArray
+        lateinit var degreesPerSecond: FloatArray
+        lateinit var rotations: FloatArray
+
+        @Setup
+        fun setUp() {
+            tilts = FloatArray(nodes) { i -> (i * 7.3f) % 180.0f }
+            degreesPerSecond = FloatArray(nodes) { i -> 360.0f / (1.0f + (i % 240)) }
+            rotations = FloatArray(nodes * 4)
+        }
+    }
+
+    //A system of bodies orbiting a Sun, every fifth one a moon of the planet before it
+    @State(Scope.Thread)
+    open class Orrery {
+        @Param("10", "1000", "5000")
+        @JvmField
+        var bodies = 0
+
+        lateinit var orbits: OrbitSystem
+
+        @Setup
+        fun setUp() {
+            orbits = OrbitSystem(bodies)
+            val sun = orbits.add(OrbitSystem.NO_PARENT, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0)
+            var planet = sun
+            for( i in 1 until bodies ) {
+                val angle = (i * 37.0f) % 360.0f
+                if( i % 5 == 0 ) {
+                    orbits.add(planet, 0.1f, 0.055f, 5.1f, angle, 318.2f, angle, 2.7)
+                } else {
+                    val distance = 0.39f + (i % 100) * 0.3f
+                    planet = orbits.add(sun, distance, 0.05f, 1.9f, angle, 114.2f, angle, 36.5 * Math.pow(distance.toDouble(), 1.5))
+                }
+            }
+        }
+    }
+
+    private val rotation = FloatArray(4)
+    private val lastPositions = FloatArray(6)
+    private val lodSelector = LodSelector()
+
+    private var elapsedSeconds = 0.0
+    private var level = 0
+
+    //RotatingNode: spin angle and the tilted spin quaternion for every node in one frame
+    @Benchmark
+    fun spin(spinners: Spinners) : Float {
+        elapsedSeconds += FRAME_SECONDS
+        val rotations = spinners.rotations
+        for( i in 0 until spinners.nodes ) {
+            val angle = OrientationMath.spinAngle(elapsedSeconds, spinners.degreesPerSecond[i], 1.0f, (i and 1) == 1)
+            OrientationMath.tiltedSpin(spinners.tilts[i], angle, rotation)
+            System.arraycopy(rotation, 0, rotations, i * 4, 4)
+        }
+        return rotations[spinners.nodes * 4 - 1]
+    }
+
+    //CelestialBody: turning the info card towards a camera that is slowly walking around it
+    @Benchmark
+    fun billboard() : Float {
+        elapsedSeconds += FRAME_SECONDS
+        val cameraX = Math.sin(elapsedSeconds).toFloat()
+        val cameraZ = Math.cos(elapsedSeconds).toFloat()
+
+        if( BillboardMath.hasMoved(lastPositions, cameraX, 1.5f, cameraZ, 0.0f, 0.6f, 0.0f, 1.0e-6f) ) {
+            BillboardMath.lookRotation(cameraX, 0.9f, cameraZ, rotation)
+        }
+        return rotation[3]
+    }
+
+    //The same turn as CelestialBody did it before BillboardMath, with a new vector or quaternion per step
+    @Benchmark
+    fun billboardBaseline() : Float {
+        elapsedSeconds += FRAME_SECONDS
+        val cameraPosition = Vector3(Math.sin(elapsedSeconds).toFloat(), 1.5f, Math.cos(elapsedSeconds).toFloat())
+        val cardPosition = Vector3(0.0f, 0.6f, 0.0f)
+
+        val direction = Vector3.subtract(cameraPosition, cardPosition)
+        val lookRotation = Quaternion.lookRotation(direction, Vector3.up())
+        return lookRotation.w
+    }
+
+    @Benchmark
+    fun orbits(orrery: Orrery) : Float {
+        elapsedSeconds += FRAME_SECONDS
+        val orbits = orrery.orbits
+        orbits.update(elapsedSeconds)
+        return orbits.positions[orbits.size * 3 - 1]
+    }
+
+    //A body being walked towards and away from, crossing every threshold
+    @Benchmark
+    fun lodSelect() : Int {
+        elapsedSeconds += FRAME_SECONDS
+        val distance = 1.5f + Math.sin(elapsedSeconds).toFloat()
+        level = lodSelector.select(level, LodSelector.projectedSize(0.05f, distance, 1.73f))
+        return level
+    }
+}
@@ -0,0 +1,48 @@
+package ptrprograms.com.arboardgame.benchmark
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import ptrprograms.com.arboardgame.LatencyHistogram
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+//The histograms are recorded into several times a frame, so recording has to stay cheap and allocation free
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput, Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class MetricsBenchmark {
+
+    private val histogram = LatencyHistogram()
+    private val filled = LatencyHistogram()
+    private val values = LongArray(1024)
+    private var nextValue = 0
+
+    @Setup
+    fun setUp() {
+        //Frame times around 16ms with the odd long one
+        val random = Random(42)
+        for( i in values.indices ) {
+            values[i] = 16000000L + (random.nextGaussian() * 2000000.0).toLong() +
+                    if( random.nextInt(100) == 0 ) 50000000L else 0L
+            filled.record(values[i])
+        }
+    }
+
+    @Benchmark
+    fun record() : Long {
+        histogram.record(values[nextValue])
+        nextValue = (nextValue + 1) and 1023
+        return histogram.count()
+    }
+
+    //What the overlay and the CSV dump pay per metric
+    @Benchmark
+    fun percentile() : Long {
+        return filled.percentile(99.0)
+    }
+}
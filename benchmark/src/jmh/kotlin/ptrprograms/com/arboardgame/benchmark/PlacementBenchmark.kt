@@ -0,0 +1,88 @@
+package ptrprograms.com.arboardgame.benchmark
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import ptrprograms.com.arboardgame.PlaneIndex
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+//Answering taps from the plane index and keeping it up to date, from a small room up to hundreds of planes
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput, Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class PlacementBenchmark {
+
+    private val VERTICES = 12
+    private val RAYS = 64
+
+    @Param("16", "128", "512")
+    @JvmField
+    var planes = 0
+
+    private val random = Random(42)
+    private val index = PlaneIndex()
+    private val polygon = FloatArray(VERTICES * 2)
+    private val rays = FloatArray(RAYS * 3)
+    private var nextRay = 0
+    private var nextPlane = 0
+
+    @Setup
+    fun setUp() {
+        //Floors and tables scattered over a 20m square, queried from a phone held at 1.5m
+        for( id in 0 until planes ) {
+            writePolygon()
+            index.update(id, random.nextFloat() * 1.2f - 0.2f, polygon, VERTICES)
+        }
+
+        for( i in 0 until RAYS ) {
+            val x = random.nextFloat() * 20.0f - 10.0f
+            val z = random.nextFloat() * 20.0f - 10.0f
+            val length = Math.sqrt((x * x + 1.5f * 1.5f + z * z).toDouble()).toFloat()
+            rays[i * 3] = x / length
+            rays[i * 3 + 1] = -1.5f / length
+            rays[i * 3 + 2] = z / length
+        }
+    }
+
+    //A rough circle around a random centre, the shape ARCore tends to report
+    private fun writePolygon() {
+        val centerX = random.nextFloat() * 20.0f - 10.0f
+        val centerZ = random.nextFloat() * 20.0f - 10.0f
+        val radius = 0.3f + random.nextFloat() * 1.5f
+        for( i in 0 until VERTICES ) {
+            val angle = Math.PI * 2.0 * i / VERTICES
+            val r = radius * (0.8f + random.nextFloat() * 0.2f)
+            polygon[i * 2] = centerX + (Math.cos(angle) * r).toFloat()
+            polygon[i * 2 + 1] = centerZ + (Math.sin(angle) * r).toFloat()
+        }
+    }
+
+    @Benchmark
+    fun query() : Int {
+        val base = nextRay * 3
+        nextRay = (nextRay + 1) % RAYS
+        return index.query(0.0f, 1.5f, 0.0f, rays[base], rays[base + 1], rays[base + 2])
+    }
+
+    @Benchmark
+    fun largestStable() : Int {
+        index.beginFrame()
+        return index.largestStable(30)
+    }
+
+    //One plane grown or reshaped, as the per frame update does for every plane ARCore reports as changed
+    @Benchmark
+    fun updatePlane() : Int {
+        val id = nextPlane
+        nextPlane = (nextPlane + 1) % planes
+        writePolygon()
+        index.update(id, index.heightOf(id), polygon, VERTICES)
+        return index.size()
+    }
+}
@@ -0,0 +1,64 @@
+package ptrprograms.com.arboardgame.benchmark
+
+//Stand-ins for Sceneform's Vector3 and Quaternion, which only ship in the Android library. Every operation
+//returns a new object the way Sceneform's do, so the baseline allocates as the app's code did before BillboardMath.
+
+internal class Vector3(@JvmField val x: Float, @JvmField val y: Float, @JvmField val z: Float) {
+
+    companion object {
+        fun up() : Vector3 {
+            return Vector3(0.0f, 1.0f, 0.0f)
+        }
+
+        fun subtract(lhs: Vector3, rhs: Vector3) : Vector3 {
+            return Vector3(lhs.x - rhs.x, lhs.y - rhs.y, lhs.z - rhs.z)
+        }
+
+        fun cross(lhs: Vector3, rhs: Vector3) : Vector3 {
+            return Vector3(lhs.y * rhs.z - lhs.z * rhs.y, lhs.z * rhs.x - lhs.x * rhs.z, lhs.x * rhs.y - lhs.y * rhs.x)
+        }
+    }
+
+    fun normalized() : Vector3 {
+        val length = Math.sqrt((x * x + y * y + z * z).toDouble()).toFloat()
+        if( length < 1.0e-6f ) {
+            return Vector3(0.0f, 0.0f, 0.0f)
+        }
+        return Vector3(x / length, y / length, z / length)
+    }
+}
+
+internal class Quaternion(@JvmField val x: Float, @JvmField val y: Float, @JvmField val z: Float, @JvmField val w: Float) {
+
+    companion object {
+        //Builds the right, up, forward rotation matrix and extracts the quaternion from it
+        fun lookRotation(forwardInWorld: Vector3, desiredUpInWorld: Vector3) : Quaternion {
+            val forward = forwardInWorld.normalized()
+            val right = Vector3.cross(desiredUpInWorld, forward).normalized()
+            val up = Vector3.cross(forward, right).normalized()
+
+            val m = floatArrayOf(
+                right.x, right.y, right.z, 0.0f,
+                up.x, up.y, up.z, 0.0f,
+                forward.x, forward.y, forward.z, 0.0f,
+                0.0f, 0.0f, 0.0f, 1.0f)
+            return extract(m)
+        }
+
+        private fun extract(m: FloatArray) : Quaternion {
+            val trace = m[0] + m[5] + m[10]
+            if( trace > 0.0f ) {
+                val s = Math.sqrt((trace + 1.0f).toDouble()).toFloat() * 2.0f
+                return Quaternion((m[6] - m[9]) / s, (m[8] - m[2]) / s, (m[1] - m[4]) / s, 0.25f * s)
+            } else if( m[0] > m[5] && m[0] > m[10] ) {
+                val s = Math.sqrt((1.0f + m[0] - m[5] - m[10]).toDouble()).toFloat() * 2.0f
+                return Quaternion(0.25f * s, (m[4] + m[1]) / s, (m[8] + m[2]) / s, (m[6] - m[9]) / s)
+            } else if( m[5] > m[10] ) {
+                val s = Math.sqrt((1.0f + m[5] - m[0] - m[10]).toDouble()).toFloat() * 2.0f
+                return Quaternion((m[4] + m[1]) / s, 0.25f * s, (m[9] + m[6]) / s, (m[8] - m[2]) / s)
+            }
+            val s = Math.sqrt((1.0f + m[10] - m[0] - m[5]).toDouble()).toFloat() * 2.0f
+            return Quaternion((m[8] + m[2]) / s, (m[9] + m[6]) / s, 0.25f * s, (m[1] - m[4]) / s)
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package ptrprograms.com.arboardgame.benchmark
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import ptrprograms.com.arboardgame.SessionDelta
+import ptrprograms.com.arboardgame.SharedSessionViewer
+import java.util.concurrent.TimeUnit
+
+//Shared session messages: what the host pays to send a change and a viewer to apply it
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput, Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class SessionCodecBenchmark {
+
+    private val delta = SessionDelta()
+    private val decoded = SessionDelta()
+    private lateinit var deltaText: String
+    private lateinit var keyframeText: String
+
+    private var sequence = 0L
+    private var changes = 0
+
+    private val viewer = SharedSessionViewer({ 0L }, object : SharedSessionViewer.Listener {
+        override fun onAnchor(anchorId: String) {}
+
+        override fun onPieces(pieces: Map<Int, Int>) {
+            changes += pieces.size
+        }
+
+        override fun onClock(sceneSeconds: Double, timeScale: Float) {}
+    })
+
+    @Setup
+    fun setUp() {
+        fillDelta()
+        deltaText = delta.encodeBase64()
+
+        delta.clear()
+        delta.isKeyframe = true
+        for( piece in 0 until 8 ) {
+            delta.addPiece(piece, piece)
+        }
+        delta.anchorId = "ua-6c0d2a4b1e9f8a7d3c5b"
+        keyframeText = delta.encodeBase64()
+    }
+
+    //Two pieces changed, the common case
+    private fun fillDelta() {
+        delta.clear()
+        delta.sequence = sequence++
+        delta.hostTimeMs = 1550000000000L + sequence
+        delta.sceneSeconds = sequence / 60.0
+        delta.addPiece(0, 3)
+        delta.addPiece(1, SessionDelta.NO_PLANET)
+    }
+
+    @Benchmark
+    fun encodeDelta() : String {
+        fillDelta()
+        return delta.encodeBase64()
+    }
+
+    @Benchmark
+    fun decodeDelta() : Int {
+        decoded.decodeBase64(deltaText)
+        return decoded.pieceCount
+    }
+
+    //A keyframe replaces the viewer's whole board, so every message is applied and none are dropped as stale
+    @Benchmark
+    fun applyKeyframe() : Int {
+        viewer.onMessage(keyframeText)
+        return changes
+    }
+}
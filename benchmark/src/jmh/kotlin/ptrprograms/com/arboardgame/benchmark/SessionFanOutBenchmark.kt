@@ -0,0 +1,64 @@
+package ptrprograms.com.arboardgame.benchmark
+
+import org.openjdk.jmh.annotations.AuxCounters
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import ptrprograms.com.arboardgame.SessionFanOutSimulation
+import java.util.concurrent.TimeUnit
+
+//One board change sent from the host to every viewer at a table, through the in-process channel.
+//The time per operation is the fan-out latency to the last viewer, the counters the bandwidth each viewer needs.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput, Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class SessionFanOutBenchmark {
+
+    @Param("2", "5", "10", "25", "50")
+    @JvmField
+    var viewers = 0
+
+    //Reported next to the timings, summed over each iteration
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    open class Bandwidth {
+        @JvmField
+        var bytesPerViewer = 0L
+
+        @JvmField
+        var messagesPerViewer = 0L
+
+        @Setup(Level.Iteration)
+        fun reset() {
+            bytesPerViewer = 0L
+            messagesPerViewer = 0L
+        }
+    }
+
+    private lateinit var simulation: SessionFanOutSimulation
+
+    @Setup
+    fun setUp() {
+        simulation = SessionFanOutSimulation(viewers)
+    }
+
+    @TearDown
+    fun tearDown() {
+        simulation.close()
+    }
+
+    @Benchmark
+    fun publish(bandwidth: Bandwidth) : Long {
+        val result = simulation.run(1)
+        bandwidth.bytesPerViewer += result.bytesPerViewer
+        bandwidth.messagesPerViewer += result.messagesPerViewer
+        return result.deliveryMax
+    }
+}
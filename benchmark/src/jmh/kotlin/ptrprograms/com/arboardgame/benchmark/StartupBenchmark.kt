@@ -0,0 +1,102 @@
+package ptrprograms.com.arboardgame.benchmark
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import ptrprograms.com.arboardgame.BoardStateStore
+import ptrprograms.com.arboardgame.LoadQueue
+import ptrprograms.com.arboardgame.SessionProfile
+import ptrprograms.com.arboardgame.TagEventPipeline
+import java.io.File
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+
+//Work on the way to the first frame: restoring the board, choosing the camera config and ordering model loads
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput, Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class StartupBenchmark {
+
+    private val MODELS = 10
+
+    private val started = IntArray(MODELS * LoadQueue.DEFAULT_MAX_ATTEMPTS)
+    private var startedCount = 0
+    private lateinit var loadQueue: LoadQueue
+
+    private val log = StringBuilder()
+    private lateinit var file: File
+    private lateinit var store: BoardStateStore
+    private var nextPut = 0
+
+    //Heights of the CPU images a typical phone offers
+    private val imageHeights = intArrayOf(480, 720, 1080)
+
+    @Setup
+    fun setUp() {
+        //Loads finish when the benchmark says so, like Sceneform calling back on a later frame
+        loadQueue = LoadQueue(
+            scheduler = { _, task -> task() },
+            start = { id, _ -> started[startedCount++] = id })
+
+        //A full log, as it is just before being compacted
+        for( i in 0 until BoardStateStore.DEFAULT_MAX_LOG_ENTRIES ) {
+            log.append(BoardStateStore.encode((1 + i % 8).toString(), if( i % 5 == 0 ) TagEventPipeline.NONE else "Earth"))
+        }
+
+        file = File.createTempFile("board_state", ".log")
+        store = BoardStateStore(file, Executor { it.run() })
+        store.load()
+    }
+
+    @TearDown
+    fun tearDown() {
+        file.delete()
+    }
+
+    //Every model queued for prefetch, the visible ones bumped and the current one bumped again, then loaded
+    @Benchmark
+    fun loadCatalog() : Long {
+        for( id in 0 until MODELS ) {
+            loadQueue.enqueue(id, LoadQueue.PRIORITY_PREFETCH)
+        }
+        for( id in 0 until 3 ) {
+            loadQueue.enqueue(id, LoadQueue.PRIORITY_VISIBLE)
+        }
+        loadQueue.enqueue(MODELS - 1, LoadQueue.PRIORITY_CURRENT)
+
+        while( startedCount > 0 ) {
+            loadQueue.onLoaded(started[--startedCount])
+        }
+        return loadQueue.completed
+    }
+
+    @Benchmark
+    fun replayBoardState() : Int {
+        val pieces = HashMap<String, String>()
+        BoardStateStore.replay(log, pieces)
+        return pieces.size
+    }
+
+    //Written through on the calling thread, so this includes the append and every 256th the compaction
+    @Benchmark
+    fun putBoardState() : Long {
+        val pieceId = (1 + nextPut % 8).toString()
+        store.put(pieceId, if( (nextPut / 8) % 2 == 0 ) "Mars" else "Venus")
+        nextPut++
+        return store.writes
+    }
+
+    @Benchmark
+    fun chooseCameraConfig() : Int {
+        var chosen = 0
+        for( profile in SessionProfile.values() ) {
+            chosen += SessionProfile.chooseConfig(imageHeights, profile)
+        }
+        return chosen
+    }
+}
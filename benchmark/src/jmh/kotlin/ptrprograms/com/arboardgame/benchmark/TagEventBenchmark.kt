@@ -0,0 +1,203 @@
+package ptrprograms.com.arboardgame.benchmark
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import ptrprograms.com.arboardgame.BoardModel
+import ptrprograms.com.arboardgame.ReplayTagSource
+import ptrprograms.com.arboardgame.TagEventPipeline
+import ptrprograms.com.arboardgame.TagFrame
+import ptrprograms.com.arboardgame.TagUidTable
+import java.util.PriorityQueue
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+//Everything between a game piece publishing a read and the scene being told what to show:
+//decoding the frame, mapping its uid to a body and debouncing. What happens on the board is in BoardBenchmark.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput, Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class TagEventBenchmark {
+
+    companion object {
+        const val PIECES = 8
+        const val FRAME_MS = 16L
+
+        private val PLANETS = arrayOf("Sun", "Mercury", "Venus", "Earth", "Luna", "Mars", "Jupiter", "Saturn", "Neptune", "Uranus")
+    }
+
+    //Runs scheduled tasks against a virtual clock instead of a Handler
+    private class VirtualScheduler {
+        var nowMs = 0L
+
+        private val due = PriorityQueue<Pair<Long, () -> Unit>>(16, Comparator { a, b -> java.lang.Long.compare(a.first, b.first) })
+
+        fun schedule(delayMs: Long, task: () -> Unit) {
+            due.add(Pair(nowMs + delayMs, task))
+        }
+
+        fun advance(ms: Long) {
+            nowMs += ms
+            while( due.isNotEmpty() && due.peek().first <= nowMs ) {
+                due.poll().second()
+            }
+        }
+    }
+
+    //One tag per body, plus a tag the catalog doesn't know
+    private class Tags(random: Random) {
+        val uids = ArrayList<ByteArray>()
+        val table: TagUidTable
+
+        init {
+            val entries = HashMap<Long, Int>()
+            for( id in 0..PLANETS.size ) {
+                val uid = ByteArray(4)
+                random.nextBytes(uid)
+                uids.add(uid)
+                if( id < PLANETS.size ) {
+                    entries[TagUidTable.key(uid, uid.size)] = id
+                }
+            }
+            table = TagUidTable(entries)
+        }
+
+        fun planetFor(uidKey: Long) : String? {
+            val id = table.get(uidKey)
+            return if( id == TagUidTable.NOT_FOUND ) null else PLANETS[id]
+        }
+    }
+
+    //Reads coming in at eventsPerSecond, delivered one 60fps frame's worth per call, so the sampled times are
+    //how long a frame spends on them
+    @State(Scope.Thread)
+    open class Load {
+        @Param("1000", "5000")
+        @JvmField
+        var eventsPerSecond = 0
+
+        @JvmField
+        var eventsPerFrame = 0
+
+        private val random = Random(42)
+        private val scheduler = VirtualScheduler()
+
+        lateinit var pipeline: TagEventPipeline
+        private val readings = ArrayList<String>()
+        private var nextReading = 0
+        @JvmField
+        var delivered = 0
+
+        lateinit var replay: ReplayTagSource
+        val replayModel = BoardModel()
+
+        @Setup
+        fun setUp() {
+            eventsPerFrame = (eventsPerSecond * FRAME_MS / 1000).toInt()
+
+            //A reader that mostly holds a planet, misses it now and then and sometimes has it swapped
+            pipeline = TagEventPipeline(
+                clock = { scheduler.nowMs },
+                scheduler = { delayMs, task -> scheduler.schedule(delayMs, task) },
+                deliver = { delivered++ })
+
+            var planet = PLANETS[0]
+            for( i in 0 until 256 ) {
+                when( random.nextInt(10) ) {
+                    0 -> readings.add(TagEventPipeline.NONE)
+                    1 -> {
+                        planet = PLANETS[random.nextInt(PLANETS.size)]
+                        readings.add(planet)
+                    }
+                    else -> readings.add(planet)
+                }
+            }
+
+            //A second of gateway batches in the format the app records, decoded as MainActivity does
+            val tags = Tags(random)
+            val lines = ArrayList<String>()
+            var sequence = 0L
+            for( ms in 0 until 1000 step 250 ) {
+                val frames = ArrayList<String>()
+                for( i in 0 until eventsPerSecond / 4 ) {
+                    val uid = tags.uids[random.nextInt(tags.uids.size)]
+                    frames.add(TagFrame.encodeBase64(1 + random.nextInt(PIECES), uid, uid.size, sequence++, 1550000000000L + ms,
+                        random.nextInt(8) != 0))
+                }
+                lines.add("$ms," + frames.joinToString(","))
+            }
+            replay = ReplayTagSource(ReplayTagSource.parse(lines.asSequence()) { uidKey -> tags.planetFor(uidKey) },
+                scheduler = { delayMs, task -> scheduler.schedule(delayMs, task) })
+            replay.observeBoard { board ->
+                //As MainActivity.initBoardData
+                val snapshot = HashMap<String, String?>()
+                for( (pieceId, reading) in board ) {
+                    snapshot[pieceId] = reading.planet
+                }
+                replayModel.update(snapshot)
+            }
+        }
+
+        //One frame of reads through the debounce, spread over the frame on the virtual clock
+        fun offerFrame() : Int {
+            var elapsedMs = 0L
+            for( i in 0 until eventsPerFrame ) {
+                pipeline.offer(readings[nextReading])
+                nextReading = (nextReading + 1) and 255
+
+                val dueMs = (i + 1) * FRAME_MS / eventsPerFrame
+                if( dueMs > elapsedMs ) {
+                    scheduler.advance(dueMs - elapsedMs)
+                    elapsedMs = dueMs
+                }
+            }
+            return delivered
+        }
+    }
+
+    private val random = Random(42)
+
+    private val frames = ArrayList<String>()
+    private var nextFrame = 0
+    private val frame = TagFrame()
+    private lateinit var uidTable: TagUidTable
+
+    @Setup
+    fun setUp() {
+        val tags = Tags(random)
+        uidTable = tags.table
+
+        for( i in 0 until 64 ) {
+            val uid = tags.uids[random.nextInt(tags.uids.size)]
+            frames.add(TagFrame.encodeBase64(1 + i % PIECES, uid, uid.size, i.toLong(), 1550000000000L + i, true))
+        }
+    }
+
+    //TagFrame decode and TagUidTable lookup, i.e. what getRenderable needs to know which model to show
+    @Benchmark
+    fun decodeAndLookup() : Int {
+        val text = frames[nextFrame]
+        nextFrame = (nextFrame + 1) and 63
+        if( !frame.decodeBase64(text) ) {
+            return TagUidTable.NOT_FOUND
+        }
+        return uidTable.get(frame.uidKey())
+    }
+
+    @Benchmark
+    fun pipeline(load: Load) : Int {
+        return load.offerFrame()
+    }
+
+    //A recorded board session replayed into the board model, as initData does in board mode
+    @Benchmark
+    fun replayBoard(load: Load) : Int {
+        load.replay.replayNext(load.eventsPerFrame)
+        return load.replayModel.size()
+    }
+}
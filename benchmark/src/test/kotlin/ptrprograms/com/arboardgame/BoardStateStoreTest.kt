@@ -0,0 +1,121 @@
+package ptrprograms.com.arboardgame
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.util.concurrent.Executor
+
+class BoardStateStoreTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun store(file: File, maxLogEntries: Int = BoardStateStore.DEFAULT_MAX_LOG_ENTRIES) : BoardStateStore {
+        return BoardStateStore(file, Executor { it.run() }, maxLogEntries)
+    }
+
+    @Test
+    fun replaysTheLatestPlanetOnEachPiece() {
+        val pieces = HashMap<String, String>()
+        val count = BoardStateStore.replay("1\tEarth\n2\tMars\n1\tVenus\n", pieces)
+
+        assertEquals(3, count)
+        assertEquals(mapOf("1" to "Venus", "2" to "Mars"), pieces)
+    }
+
+    @Test
+    fun noneTakesThePieceOffTheBoard() {
+        val pieces = HashMap<String, String>()
+        BoardStateStore.replay("1\tEarth\n1\t${TagEventPipeline.NONE}\n", pieces)
+
+        assertNull(pieces["1"])
+    }
+
+    @Test
+    fun ignoresALastLineWithoutANewline() {
+        val pieces = HashMap<String, String>()
+        val count = BoardStateStore.replay("1\tEarth\n1\tEar", pieces)
+
+        assertEquals(1, count)
+        assertEquals("Earth", pieces["1"])
+    }
+
+    @Test
+    fun skipsUnreadableLines() {
+        val pieces = HashMap<String, String>()
+        val count = BoardStateStore.replay("Earth\n\tEarth\n1\t\n1\tEar2\tMars\n\n2\tMars\n", pieces)
+
+        assertEquals(1, count)
+        assertEquals(mapOf("2" to "Mars"), pieces)
+    }
+
+    @Test
+    fun completeLengthEndsAtTheLastNewline() {
+        assertEquals(0, BoardStateStore.completeLength("1\tEar".toByteArray()))
+        assertEquals(8, BoardStateStore.completeLength("1\tEarth\n2\tMa".toByteArray()))
+        assertEquals(8, BoardStateStore.completeLength("1\tEarth\n".toByteArray()))
+    }
+
+    @Test
+    fun loadsWhatWasPut() {
+        val file = File(folder.root, "board_state.log")
+        val writer = store(file)
+        writer.load()
+        writer.put("1", "Earth")
+        writer.put("2", "Mars")
+        writer.put("2", TagEventPipeline.NONE)
+
+        assertEquals(mapOf("1" to "Earth"), store(file).load())
+        assertEquals(3L, writer.writes)
+    }
+
+    @Test
+    fun unchangedValuesArentWritten() {
+        val file = File(folder.root, "board_state.log")
+        val writer = store(file)
+        writer.load()
+        writer.put("1", "Earth")
+        writer.put("1", "Earth")
+        writer.put("2", TagEventPipeline.NONE)
+
+        assertEquals(1L, writer.writes)
+    }
+
+    //The app was killed in the middle of writing "1\tEarth\n"
+    @Test
+    fun loadCutsOffATornLastLine() {
+        val file = File(folder.root, "board_state.log")
+        file.writeText("2\tMars\n1\tEar")
+
+        val writer = store(file)
+        assertEquals(mapOf("2" to "Mars"), writer.load())
+        assertEquals("2\tMars\n", file.readText())
+
+        writer.put("3", "Venus")
+        assertEquals(mapOf("2" to "Mars", "3" to "Venus"), store(file).load())
+    }
+
+    @Test
+    fun compactsOnceTheLogIsFull() {
+        val file = File(folder.root, "board_state.log")
+        val writer = store(file, maxLogEntries = 4)
+        writer.load()
+        for( i in 0 until 5 ) {
+            writer.put("1", if( i % 2 == 0 ) "Earth" else "Mars")
+        }
+
+        assertEquals(1L, writer.compactions)
+        assertEquals("1\tEarth\n", file.readText())
+        assertFalse(File(folder.root, "board_state.log.tmp").exists())
+        assertEquals(mapOf("1" to "Earth"), store(file).load())
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsTabsInValues() {
+        store(File(folder.root, "board_state.log")).put("1", "Ear\tth")
+    }
+}
@@ -0,0 +1,98 @@
+package ptrprograms.com.arboardgame
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+//With the defaults level 1 starts below 0.12 and ends above 0.18, level 2 starts below 0.04 and ends above 0.06
+class LodSelectorTest {
+
+    private val selector = LodSelector()
+
+    @Test
+    fun staysAtFullDetailUntilClearlyBelowTheFirstThreshold() {
+        assertEquals(0, selector.select(0, 0.5f))
+        assertEquals(0, selector.select(0, 0.14f))
+        assertEquals(0, selector.select(0, 0.121f))
+        assertEquals(1, selector.select(0, 0.119f))
+    }
+
+    @Test
+    fun staysAtTheFirstLevelInsideEitherBand() {
+        assertEquals(1, selector.select(1, 0.179f))
+        assertEquals(1, selector.select(1, 0.15f))
+        assertEquals(1, selector.select(1, 0.05f))
+        assertEquals(1, selector.select(1, 0.041f))
+    }
+
+    @Test
+    fun leavesTheFirstLevelOnceClearlyPastAThreshold() {
+        assertEquals(0, selector.select(1, 0.181f))
+        assertEquals(2, selector.select(1, 0.039f))
+    }
+
+    @Test
+    fun staysAtTheLastLevelUntilClearlyAboveTheSecondThreshold() {
+        assertEquals(2, selector.select(2, 0.001f))
+        assertEquals(2, selector.select(2, 0.059f))
+        assertEquals(1, selector.select(2, 0.061f))
+    }
+
+    @Test
+    fun jumpsMoreThanOneLevelAtOnce() {
+        assertEquals(2, selector.select(0, 0.01f))
+        assertEquals(0, selector.select(2, 1.0f))
+    }
+
+    @Test
+    fun holdsTheLevelForASizeThatWobblesAroundAThreshold() {
+        var level = 0
+        for( i in 0 until 20 ) {
+            level = selector.select(level, if( i % 2 == 0 ) 0.16f else 0.14f)
+            assertEquals(0, level)
+        }
+
+        level = selector.select(level, 0.1f)
+        for( i in 0 until 20 ) {
+            level = selector.select(level, if( i % 2 == 0 ) 0.16f else 0.14f)
+            assertEquals(1, level)
+        }
+    }
+
+    @Test
+    fun capsTheLevelAtMaxLevel() {
+        assertEquals(1, selector.select(0, 0.01f, maxLevel = 1))
+        assertEquals(0, selector.select(0, 0.01f, maxLevel = 0))
+        assertEquals(1, selector.select(2, 0.01f, maxLevel = 1))
+    }
+
+    @Test
+    fun noHysteresisSwitchesRightAtTheThreshold() {
+        val exact = LodSelector(hysteresis = 0.0f)
+        assertEquals(0, exact.select(0, 0.15f))
+        assertEquals(1, exact.select(0, 0.149f))
+        assertEquals(0, exact.select(1, 0.151f))
+    }
+
+    @Test
+    fun projectedSizeShrinksWithDistance() {
+        //focalY 2 is a 53 degree vertical field of view
+        assertEquals(0.2f, LodSelector.projectedSize(0.5f, 5.0f, 2.0f), 1e-6f)
+        assertEquals(0.1f, LodSelector.projectedSize(0.5f, 10.0f, 2.0f), 1e-6f)
+    }
+
+    @Test
+    fun projectedSizeInsideTheBodyIsFullDetail() {
+        assertEquals(Float.MAX_VALUE, LodSelector.projectedSize(0.5f, 0.5f, 2.0f), 0.0f)
+        assertEquals(0, selector.select(2, LodSelector.projectedSize(0.5f, 0.1f, 2.0f)))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsThresholdsOutOfOrder() {
+        LodSelector(thresholds = floatArrayOf(0.05f, 0.15f))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsHysteresisOfOneOrMore() {
+        LodSelector(hysteresis = 1.0f)
+    }
+}
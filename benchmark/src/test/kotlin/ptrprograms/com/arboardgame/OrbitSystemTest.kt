@@ -0,0 +1,152 @@
+package ptrprograms.com.arboardgame
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class OrbitSystemTest {
+
+    private val PERIOD = 100.0
+
+    private fun radiusOf(system: OrbitSystem, index: Int) : Float {
+        val p = index * 3
+        val x = system.positions[p]
+        val y = system.positions[p + 1]
+        val z = system.positions[p + 2]
+        return Math.sqrt((x * x + y * y + z * z).toDouble()).toFloat()
+    }
+
+    private fun distance(a: FloatArray, b: FloatArray) : Float {
+        val dx = a[0] - b[0]
+        val dy = a[1] - b[1]
+        val dz = a[2] - b[2]
+        return Math.sqrt((dx * dx + dy * dy + dz * dz).toDouble()).toFloat()
+    }
+
+    @Test
+    fun aCircularOrbitKeepsItsRadius() {
+        val system = OrbitSystem(2)
+        system.add(OrbitSystem.NO_PARENT, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0)
+        val planet = system.add(0, 5.0f, 0.0f, 30.0f, 40.0f, 50.0f, 60.0f, PERIOD)
+
+        for( step in 0..20 ) {
+            system.update(PERIOD * step / 20)
+            assertEquals(5.0f, radiusOf(system, planet), 1e-4f)
+        }
+    }
+
+    @Test
+    fun aCircularOrbitClosesAfterOnePeriod() {
+        val system = OrbitSystem(2)
+        system.add(OrbitSystem.NO_PARENT, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0)
+        val planet = system.add(0, 5.0f, 0.0f, 10.0f, 20.0f, 30.0f, 45.0f, PERIOD)
+
+        system.update(0.0)
+        val start = system.positions.copyOfRange(planet * 3, planet * 3 + 3)
+        system.update(PERIOD / 2)
+        val half = system.positions.copyOfRange(planet * 3, planet * 3 + 3)
+        system.update(PERIOD)
+        val end = system.positions.copyOfRange(planet * 3, planet * 3 + 3)
+
+        assertEquals(0.0f, distance(start, end), 1e-4f)
+        assertEquals(10.0f, distance(start, half), 1e-4f)
+    }
+
+    //Without inclination the orbit stays in the ecliptic, the scene's XZ plane, and runs counter clockwise seen from +Y
+    @Test
+    fun anUninclinedOrbitStaysInTheXzPlane() {
+        val system = OrbitSystem(1)
+        system.add(OrbitSystem.NO_PARENT, 5.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, PERIOD)
+
+        system.update(0.0)
+        assertEquals(5.0f, system.positions[0], 1e-4f)
+        assertEquals(0.0f, system.positions[1], 1e-4f)
+        assertEquals(0.0f, system.positions[2], 1e-4f)
+
+        system.update(PERIOD / 4)
+        assertEquals(0.0f, system.positions[0], 1e-4f)
+        assertEquals(0.0f, system.positions[1], 1e-4f)
+        assertEquals(-5.0f, system.positions[2], 1e-4f)
+    }
+
+    @Test
+    fun anEccentricOrbitReachesPeriapsisAndApoapsis() {
+        for( e in floatArrayOf(0.3f, 0.5f, 0.9f) ) {
+            val system = OrbitSystem(1)
+            system.add(OrbitSystem.NO_PARENT, 10.0f, e, 5.0f, 15.0f, 25.0f, 0.0f, PERIOD)
+
+            system.update(0.0)
+            assertEquals(10.0f * (1.0f - e), radiusOf(system, 0), 1e-3f)
+
+            system.update(PERIOD / 2)
+            assertEquals(10.0f * (1.0f + e), radiusOf(system, 0), 1e-3f)
+
+            system.update(PERIOD)
+            assertEquals(10.0f * (1.0f - e), radiusOf(system, 0), 1e-3f)
+        }
+    }
+
+    //A body spends longer near apoapsis, a quarter of the period in it is past the end of the minor axis
+    @Test
+    fun anEccentricOrbitSolvesKeplersEquation() {
+        val system = OrbitSystem(1)
+        val a = 10.0f
+        val e = 0.5f
+        system.add(OrbitSystem.NO_PARENT, a, e, 0.0f, 0.0f, 0.0f, 0.0f, PERIOD)
+
+        //M = pi / 2 gives E with E - e sin E = pi / 2, found by bisection
+        var low = 0.0
+        var high = Math.PI
+        for( i in 0 until 60 ) {
+            val mid = (low + high) / 2
+            if( mid - e * Math.sin(mid) < Math.PI / 2 ) low = mid else high = mid
+        }
+        system.update(PERIOD / 4)
+
+        assertEquals((a * (Math.cos(low) - e)).toFloat(), system.positions[0], 1e-4f)
+        assertEquals((-a * Math.sqrt(1.0 - e * e) * Math.sin(low)).toFloat(), system.positions[2], 1e-4f)
+    }
+
+    @Test
+    fun aMoonFollowsItsParent() {
+        val system = OrbitSystem(3)
+        system.add(OrbitSystem.NO_PARENT, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0)
+        val planet = system.add(0, 10.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, PERIOD)
+        val moon = system.add(planet, 1.0f, 0.0f, 5.0f, 0.0f, 0.0f, 90.0f, PERIOD / 7)
+
+        val planetPosition = FloatArray(3)
+        val moonPosition = FloatArray(3)
+        for( step in 0..10 ) {
+            system.update(PERIOD * step / 10)
+            system.systemPositionOf(planet, planetPosition)
+            system.systemPositionOf(moon, moonPosition)
+
+            assertEquals(10.0f, distance(planetPosition, FloatArray(3)), 1e-4f)
+            assertEquals(1.0f, distance(moonPosition, planetPosition), 1e-4f)
+            for( axis in 0 until 3 ) {
+                assertEquals(planetPosition[axis] + system.positions[moon * 3 + axis], moonPosition[axis], 1e-5f)
+            }
+        }
+    }
+
+    @Test
+    fun aBodyWithoutAPeriodStaysAtItsEpochPosition() {
+        val system = OrbitSystem(1)
+        system.add(OrbitSystem.NO_PARENT, 5.0f, 0.2f, 0.0f, 0.0f, 0.0f, 90.0f, 0.0)
+
+        system.update(0.0)
+        val start = system.positions.copyOf()
+        system.update(1000.0)
+
+        assertEquals(0.0f, distance(start, system.positions), 0.0f)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsASatelliteBeforeItsParent() {
+        OrbitSystem(2).add(0, 1.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, PERIOD)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsAnOpenOrbit() {
+        OrbitSystem(1).add(OrbitSystem.NO_PARENT, 1.0f, 1.0f, 0.0f, 0.0f, 0.0f, 0.0f, PERIOD)
+    }
+}
@@ -0,0 +1,75 @@
+package ptrprograms.com.arboardgame
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class PlaneIndexTest {
+
+    private fun square(size: Float) : FloatArray {
+        return floatArrayOf(0.0f, 0.0f, size, 0.0f, size, size, 0.0f, size)
+    }
+
+    //Updates the plane once a frame for frames frames, growing its side by step each time
+    private fun grow(index: PlaneIndex, id: Int, from: Float, step: Float, frames: Int) : Float {
+        var size = from
+        for( i in 0 until frames ) {
+            index.beginFrame()
+            index.update(id, 0.0f, square(size), 4)
+            size += step
+        }
+        return size
+    }
+
+    @Test
+    fun aPlaneThatHoldsItsSizeBecomesStable() {
+        val index = PlaneIndex()
+        grow(index, 1, 1.0f, 0.0f, 31)
+
+        assertEquals(1, index.largestStable(30))
+    }
+
+    //Each update grows the area by about 1%, under STABLE_GROWTH, but it adds up to far more over 30 frames
+    @Test
+    fun slowGrowthStillCountsAsChanging() {
+        val index = PlaneIndex()
+        grow(index, 1, 1.0f, 0.005f, 61)
+
+        assertEquals(PlaneIndex.NO_PLANE, index.largestStable(30))
+    }
+
+    @Test
+    fun jitterUnderTheThresholdDoesNotResetStability() {
+        val index = PlaneIndex()
+        grow(index, 1, 1.0f, 0.0f, 1)
+        for( i in 0 until 30 ) {
+            index.beginFrame()
+            index.update(1, 0.0f, square(if( i % 2 == 0 ) 1.01f else 0.99f), 4)
+        }
+
+        assertEquals(1, index.largestStable(30))
+    }
+
+    @Test
+    fun picksTheLargestStablePlane() {
+        val index = PlaneIndex()
+        for( i in 0 until 31 ) {
+            index.beginFrame()
+            index.update(1, 0.0f, square(1.0f), 4)
+            index.update(2, 0.0f, square(2.0f), 4)
+        }
+        index.remove(2)
+
+        assertEquals(1, index.largestStable(30))
+    }
+
+    @Test
+    fun queryHitsTheNearestPlane() {
+        val index = PlaneIndex()
+        index.update(1, 0.0f, square(2.0f), 4)
+        index.update(2, 1.0f, square(2.0f), 4)
+
+        assertEquals(2, index.query(1.0f, 3.0f, 1.0f, 0.0f, -1.0f, 0.0f))
+        assertEquals(1.0f, index.hitY, 0.0f)
+        assertEquals(PlaneIndex.NO_PLANE, index.query(5.0f, 3.0f, 5.0f, 0.0f, -1.0f, 0.0f))
+    }
+}
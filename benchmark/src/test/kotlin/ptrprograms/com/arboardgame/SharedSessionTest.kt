@@ -0,0 +1,139 @@
+package ptrprograms.com.arboardgame
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class SharedSessionTest {
+
+    //Keeps every message so a test can hand them to a viewer in any order
+    private class RecordingChannel : SessionChannel {
+        val messages = ArrayList<Pair<String, Boolean>>()
+
+        override fun publish(message: String, isKeyframe: Boolean) {
+            messages.add(Pair(message, isKeyframe))
+        }
+
+        override fun subscribe(listener: (String) -> Unit) {
+        }
+
+        override fun close() {
+        }
+    }
+
+    private class RecordingListener : SharedSessionViewer.Listener {
+        var pieces: Map<Int, Int> = emptyMap()
+        var updates = 0
+
+        override fun onAnchor(anchorId: String) {
+        }
+
+        override fun onPieces(pieces: Map<Int, Int>) {
+            this.pieces = HashMap(pieces)
+            updates++
+        }
+
+        override fun onClock(sceneSeconds: Double, timeScale: Float) {
+        }
+    }
+
+    private fun board(size: Int, first: Int = 0) : Map<Int, Int> {
+        val pieces = HashMap<Int, Int>()
+        for( i in first until first + size ) {
+            pieces[i] = 1
+        }
+        return pieces
+    }
+
+    @Test
+    fun aFullBoardFitsInOneKeyframe() {
+        val channel = RecordingChannel()
+        val host = SharedSessionHost(channel, { 0L })
+        host.updatePieces(board(SessionDelta.MAX_PIECES))
+        host.publish(0.0, 1.0f)
+
+        //Every piece swapped for another takes more changes than a message holds, so it goes out as a keyframe too
+        host.updatePieces(board(SessionDelta.MAX_PIECES, first = SessionDelta.MAX_PIECES))
+        host.publish(0.0, 1.0f)
+
+        val listener = RecordingListener()
+        val viewer = SharedSessionViewer({ 0L }, listener)
+        assertEquals(2, channel.messages.size)
+        for( (message, isKeyframe) in channel.messages ) {
+            assertTrue(isKeyframe)
+            viewer.onMessage(message)
+        }
+        assertEquals(board(SessionDelta.MAX_PIECES, first = SessionDelta.MAX_PIECES), listener.pieces)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsABoardThatDoesntFitInAKeyframe() {
+        SharedSessionHost(RecordingChannel(), { 0L }).updatePieces(board(SessionDelta.MAX_PIECES + 1))
+    }
+
+    //A viewer joining late reads whatever is left in the channel, the last delta can come in before the keyframe
+    @Test
+    fun ignoresDeltasBeforeTheFirstKeyframe() {
+        val channel = RecordingChannel()
+        val host = SharedSessionHost(channel, { 0L })
+        host.updatePieces(mapOf(1 to 1, 2 to 2))
+        host.publish(0.0, 1.0f)
+        host.updatePieces(mapOf(1 to 3, 2 to 2))
+        host.publish(0.0, 1.0f)
+
+        val listener = RecordingListener()
+        val viewer = SharedSessionViewer({ 0L }, listener)
+        viewer.onMessage(channel.messages[1].first)
+
+        assertEquals(1L, viewer.stale)
+        assertEquals(0, listener.updates)
+
+        viewer.onMessage(channel.messages[0].first)
+        viewer.onMessage(channel.messages[1].first)
+
+        assertEquals(mapOf(1 to 3, 2 to 2), listener.pieces)
+        assertEquals(0L, viewer.gaps)
+    }
+
+    //Deltas every 100ms never leave the host idle, the keyframe still goes out on time
+    @Test
+    fun sendsAKeyframeEverySyncIntervalUnderSteadyTraffic() {
+        val channel = RecordingChannel()
+        var nowMs = 0L
+        val host = SharedSessionHost(channel, { nowMs }, keyframeInterval = 1000, syncIntervalMs = 2000L)
+        host.updatePieces(mapOf(1 to 0))
+        host.publish(0.0, 1.0f)
+
+        val keyframesAt = ArrayList<Long>()
+        for( step in 1..50 ) {
+            nowMs += 100L
+            host.updatePieces(mapOf(1 to step))
+            host.publish(0.0, 1.0f)
+            val before = host.keyframes
+            host.tick(0.0, 1.0f)
+            if( host.keyframes > before ) {
+                keyframesAt.add(nowMs)
+            }
+        }
+
+        assertEquals(listOf(2000L, 4000L), keyframesAt)
+    }
+
+    @Test
+    fun countsAGapAfterAMissedDelta() {
+        val channel = RecordingChannel()
+        val host = SharedSessionHost(channel, { 0L })
+        for( planet in 1..3 ) {
+            host.updatePieces(mapOf(1 to planet))
+            host.publish(0.0, 1.0f)
+        }
+
+        val listener = RecordingListener()
+        val viewer = SharedSessionViewer({ 0L }, listener)
+        viewer.onMessage(channel.messages[0].first)
+        viewer.onMessage(channel.messages[2].first)
+
+        assertEquals(1L, viewer.gaps)
+        assertEquals(mapOf(1 to 3), listener.pieces)
+    }
+}
@@ -0,0 +1,137 @@
+package ptrprograms.com.arboardgame
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class TagEventPipelineTest {
+
+    private val scheduler = VirtualScheduler()
+    private val delivered = ArrayList<String>()
+    private var scheduled = 0
+    private lateinit var pipeline: TagEventPipeline
+
+    @Before
+    fun setUp() {
+        pipeline = TagEventPipeline(debounceMs = 150L, noneHoldMs = 2500L, clock = { scheduler.nowMs },
+            scheduler = { delayMs, task ->
+                scheduled++
+                scheduler.schedule(delayMs, task)
+            },
+            deliver = { value -> delivered.add(value) })
+    }
+
+    @Test
+    fun deliversAValueOnceItHasBeenStableForTheDebounce() {
+        pipeline.offer("Earth")
+        scheduler.advance(149L)
+        assertEquals(emptyList<String>(), delivered)
+
+        scheduler.advance(1L)
+        assertEquals(listOf("Earth"), delivered)
+    }
+
+    @Test
+    fun ignoresRepeats() {
+        pipeline.offer("Earth")
+        pipeline.offer("Earth")
+        scheduler.advance(150L)
+        pipeline.offer("Earth")
+        scheduler.advance(1000L)
+
+        assertEquals(listOf("Earth"), delivered)
+        assertEquals(2L, pipeline.dropped)
+    }
+
+    @Test
+    fun flapToNoneAndBackDeliversNothing() {
+        pipeline.offer("Earth")
+        scheduler.advance(150L)
+
+        pipeline.offer(TagEventPipeline.NONE)
+        scheduler.advance(1000L)
+        pipeline.offer("Earth")
+        scheduler.advance(5000L)
+
+        assertEquals(listOf("Earth"), delivered)
+        assertEquals(1L, pipeline.coalesced)
+        assertEquals("Earth", pipeline.lastDelivered())
+    }
+
+    @Test
+    fun noneIsDeliveredOnceItHasHeld() {
+        pipeline.offer("Earth")
+        scheduler.advance(150L)
+
+        pipeline.offer(TagEventPipeline.NONE)
+        scheduler.advance(2499L)
+        assertEquals(listOf("Earth"), delivered)
+
+        scheduler.advance(1L)
+        assertEquals(listOf("Earth", TagEventPipeline.NONE), delivered)
+    }
+
+    @Test
+    fun swapWithinTheWindowDeliversOnlyTheLatestValue() {
+        pipeline.offer("Earth")
+        scheduler.advance(150L)
+
+        pipeline.offer("Mars")
+        scheduler.advance(100L)
+        pipeline.offer("Venus")
+        scheduler.advance(100L)
+        assertEquals(listOf("Earth"), delivered)
+
+        //Venus has to be stable for the full debounce from when it arrived
+        scheduler.advance(50L)
+        assertEquals(listOf("Earth", "Venus"), delivered)
+        assertEquals(1L, pipeline.coalesced)
+
+        scheduler.advance(1000L)
+        assertEquals(2L, pipeline.deliveredCount)
+    }
+
+    @Test
+    fun swapBackWithinTheWindowDeliversNothing() {
+        pipeline.offer("Earth")
+        scheduler.advance(150L)
+
+        pipeline.offer("Mars")
+        scheduler.advance(100L)
+        pipeline.offer("Earth")
+        scheduler.advance(1000L)
+
+        assertEquals(listOf("Earth"), delivered)
+    }
+
+    @Test
+    fun valueAfterNoneIsDeliveredWithoutWaitingForTheNoneHold() {
+        pipeline.offer("Earth")
+        scheduler.advance(150L)
+
+        pipeline.offer(TagEventPipeline.NONE)
+        scheduler.advance(100L)
+        pipeline.offer("Mars")
+        scheduler.advance(150L)
+
+        assertEquals(listOf("Earth", "Mars"), delivered)
+    }
+
+    @Test
+    fun readerThatNeverSettlesDoesNotPileUpFlushes() {
+        for( i in 0 until 1000 ) {
+            pipeline.offer(if( i % 2 == 0 ) "Earth" else "Mars")
+            scheduler.advance(10L)
+        }
+        scheduler.advance(1000L)
+
+        assertEquals(listOf("Mars"), delivered)
+        assertTrue("$scheduled flushes scheduled", scheduled < 100)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsNegativeDelays() {
+        TagEventPipeline(debounceMs = -1L, clock = { 0L }, scheduler = { _, _ -> }, deliver = { })
+    }
+}
@@ -0,0 +1,137 @@
+package ptrprograms.com.arboardgame
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.util.Base64
+
+class TagFrameTest {
+
+    private val uid = byteArrayOf(0xa3.toByte(), 0xf0.toByte(), 0x1b, 0x2c)
+
+    @Test
+    fun roundTripsEveryField() {
+        val text = TagFrame.encodeBase64(513, uid, uid.size, 0xfffffffeL, 1550000000123L, true)
+        assertEquals(TagFrame.BASE64_LENGTH, text.length)
+
+        val frame = TagFrame()
+        assertTrue(frame.decodeBase64(text))
+        assertTrue(frame.isPresent)
+        assertEquals(513, frame.pieceId)
+        assertEquals(4, frame.uidLength)
+        assertEquals(0xa3, frame.uidByte(0))
+        assertEquals(0x2c, frame.uidByte(3))
+        assertEquals(0, frame.uidByte(4))
+        assertEquals(0xfffffffeL, frame.sequence)
+        assertEquals(1550000000123L, frame.timestampMs)
+        assertEquals("a3f01b2c", frame.uidHex())
+        assertEquals(TagUidTable.key(uid, uid.size), frame.uidKey())
+    }
+
+    @Test
+    fun roundTripsAnEmptyReader() {
+        val frame = TagFrame()
+        assertTrue(frame.decodeBase64(TagFrame.encodeBase64(1, ByteArray(0), 0, 7L, 0L, false)))
+        assertFalse(frame.isPresent)
+        assertEquals(0, frame.uidLength)
+        assertEquals(7L, frame.sequence)
+    }
+
+    @Test
+    fun roundTripsTheLongestUid() {
+        val long = byteArrayOf(1, 2, 3, 4, 5, 6, 7)
+        val frame = TagFrame()
+        assertTrue(frame.decodeBase64(TagFrame.encodeBase64(1, long, long.size, 0L, 0L, true)))
+        assertEquals("01020304050607", frame.uidHex())
+    }
+
+    //The frame format the firmware builds, so a change on either side shows up here
+    @Test
+    fun decodesTheFirmwareLayout() {
+        val bytes = ByteArray(TagFrame.SIZE)
+        bytes[0] = 1
+        bytes[1] = 1
+        bytes[3] = 1
+        bytes[4] = 4
+        System.arraycopy(uid, 0, bytes, 5, 4)
+        bytes[15] = 9
+        ByteBuffer.wrap(bytes).putLong(16, 1550000000000L)
+
+        val frame = TagFrame()
+        assertTrue(frame.decodeBase64(Base64.getEncoder().encodeToString(bytes)))
+        assertEquals(1, frame.pieceId)
+        assertEquals(9L, frame.sequence)
+        assertEquals(TagUidTable.key("a3f01b2c"), frame.uidKey())
+    }
+
+    @Test
+    fun rejectsTruncatedText() {
+        val text = TagFrame.encodeBase64(1, uid, uid.size, 0L, 0L, true)
+        val frame = TagFrame()
+
+        assertFalse(frame.decodeBase64(text.substring(0, text.length - 1)))
+        assertFalse(frame.decodeBase64(text.substring(0, 28)))
+        assertFalse(frame.decodeBase64(""))
+    }
+
+    @Test
+    fun rejectsTextThatIsTooLong() {
+        assertFalse(TagFrame().decodeBase64(TagFrame.encodeBase64(1, uid, uid.size, 0L, 0L, true) + "AAAA"))
+    }
+
+    @Test
+    fun rejectsMalformedBase64() {
+        val frame = TagFrame()
+        assertFalse(frame.decodeBase64("!".repeat(TagFrame.BASE64_LENGTH)))
+        assertFalse(frame.decodeBase64("AQEAAQSj8Bss" + "AAAA" + "AAAA" + "AAA=" + "====" + "AAAA"))
+    }
+
+    //32 characters, but padded so they hold fewer bytes than a frame
+    @Test
+    fun rejectsPaddedShortFrames() {
+        val short = Base64.getEncoder().encodeToString(ByteArray(22) { 1 })
+        assertEquals(TagFrame.BASE64_LENGTH, short.length)
+        assertFalse(TagFrame().decodeBase64(short))
+    }
+
+    @Test
+    fun rejectsOtherVersions() {
+        val bytes = Base64.getDecoder().decode(TagFrame.encodeBase64(1, uid, uid.size, 0L, 0L, true))
+        bytes[0] = 2
+        assertFalse(TagFrame().decodeBase64(Base64.getEncoder().encodeToString(bytes)))
+    }
+
+    @Test
+    fun rejectsUidsLongerThanTheFrameHolds() {
+        val bytes = Base64.getDecoder().decode(TagFrame.encodeBase64(1, uid, uid.size, 0L, 0L, true))
+        bytes[4] = 8
+        assertFalse(TagFrame().decodeBase64(Base64.getEncoder().encodeToString(bytes)))
+    }
+
+    @Test
+    fun keepsTheLastGoodFrameAfterAFailedDecode() {
+        val frame = TagFrame()
+        assertTrue(frame.decodeBase64(TagFrame.encodeBase64(3, uid, uid.size, 0L, 0L, true)))
+        assertFalse(frame.decodeBase64("not a frame"))
+        assertEquals(3, frame.pieceId)
+    }
+
+    @Test
+    fun wrapsFramesInsideALargerBuffer() {
+        val buffer = ByteBuffer.allocate(TagFrame.SIZE * 2)
+        TagFrame.encode(buffer, 1, uid, uid.size, 1L, 0L, true)
+        TagFrame.encode(buffer, 2, uid, uid.size, 2L, 0L, false)
+
+        val frame = TagFrame()
+        assertTrue(frame.wrap(buffer, TagFrame.SIZE))
+        assertEquals(2, frame.pieceId)
+        assertFalse(frame.wrap(buffer, TagFrame.SIZE + 1))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun encodeRejectsUidsThatAreTooLong() {
+        TagFrame.encodeBase64(1, ByteArray(8), 8, 0L, 0L, true)
+    }
+}
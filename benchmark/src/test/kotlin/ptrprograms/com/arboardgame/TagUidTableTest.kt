@@ -0,0 +1,56 @@
+package ptrprograms.com.arboardgame
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class TagUidTableTest {
+
+    @Test
+    fun hexKeysMatchFrameKeys() {
+        val uid = byteArrayOf(0xa3.toByte(), 0xf0.toByte(), 0x1b, 0x2c)
+        assertEquals(TagUidTable.key(uid, uid.size), TagUidTable.key("a3f01b2c"))
+        assertEquals(TagUidTable.key(uid, uid.size), TagUidTable.key("A3F01B2C"))
+    }
+
+    //What the first firmware published: the uid with its check byte, a3 ^ f0 ^ 1b ^ 2c = 64
+    @Test
+    fun dropsTheCheckByteOfFiveByteUids() {
+        assertEquals(TagUidTable.key("a3f01b2c"), TagUidTable.key("a3f01b2c64"))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsAWrongCheckByte() {
+        TagUidTable.key("a3f01b2c65")
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsAnOddNumberOfDigits() {
+        TagUidTable.key("a3f01b2")
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsAnEmptyUid() {
+        TagUidTable.key("")
+    }
+
+    @Test
+    fun keepsSevenByteUids() {
+        val uid = byteArrayOf(4, 0x12, 0x34, 0x56, 0x78, 0x9a.toByte(), 0x80.toByte())
+        assertEquals(TagUidTable.key(uid, uid.size), TagUidTable.key("04123456789a80"))
+    }
+
+    @Test
+    fun looksUpEveryEntry() {
+        val entries = HashMap<Long, Int>()
+        for( i in 0 until 1000 ) {
+            entries[TagUidTable.key(String.format("%08x", i * 7919))] = i
+        }
+        val table = TagUidTable(entries)
+
+        for( (key, value) in entries ) {
+            assertEquals(value, table.get(key))
+        }
+        assertEquals(TagUidTable.NOT_FOUND, table.get(TagUidTable.key("ffffffff")))
+        assertEquals(TagUidTable.NOT_FOUND, table.get(0L))
+    }
+}
@@ -0,0 +1,31 @@
+package ptrprograms.com.arboardgame
+
+import java.util.PriorityQueue
+
+//Stands in for the UI handler and clock: tasks run when advance() moves the time past their due time
+class VirtualScheduler {
+    var nowMs = 0L
+        private set
+
+    private var sequence = 0L
+
+    private class Task(val dueMs: Long, val order: Long, val run: () -> Unit)
+
+    private val due = PriorityQueue<Task>(16, Comparator { a, b ->
+        if( a.dueMs != b.dueMs ) java.lang.Long.compare(a.dueMs, b.dueMs) else java.lang.Long.compare(a.order, b.order)
+    })
+
+    fun schedule(delayMs: Long, task: () -> Unit) {
+        due.add(Task(nowMs + delayMs, sequence++, task))
+    }
+
+    fun advance(ms: Long) {
+        val end = nowMs + ms
+        while( due.isNotEmpty() && due.peek().dueMs <= end ) {
+            val task = due.poll()
+            nowMs = task.dueMs
+            task.run()
+        }
+        nowMs = end
+    }
+}
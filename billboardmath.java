@@ -0,0 +1,96 @@
+package ptrprograms.com.arboardgame
+
+//Float math for turning info cards towards the camera, kept free of Sceneform types and allocations
+object BillboardMath {
+
+    private const val EPSILON = 1.0e-6f
+
+    //Compares camera and card positions against the ones stored in last (camera xyz, card xyz).
+    //Returns true and stores the new positions if either has moved at least sqrt(thresholdSq).
+    fun hasMoved(last: FloatArray,
+                 cameraX: Float, cameraY: Float, cameraZ: Float,
+                 cardX: Float, cardY: Float, cardZ: Float,
+                 thresholdSq: Float) : Boolean {
+        val cameraMovedSq = distanceSq(last[0], last[1], last[2], cameraX, cameraY, cameraZ)
+        val cardMovedSq = distanceSq(last[3], last[4], last[5], cardX, cardY, cardZ)
+
+        //NaN marks a card that has never been turned
+        if( cameraMovedSq < thresholdSq && cardMovedSq < thresholdSq ) {
+            return false
+        }
+
+        last[0] = cameraX
+        last[1] = cameraY
+        last[2] = cameraZ
+        last[3] = cardX
+        last[4] = cardY
+        last[5] = cardZ
+        return true
+    }
+
+    //Writes the rotation that points local +Z along the given direction with +Y as close to world up as possible,
+    //matching Quaternion.lookRotation(direction, Vector3.up()). Returns false when the direction is degenerate.
+    fun lookRotation(directionX: Float, directionY: Float, directionZ: Float, out: FloatArray) : Boolean {
+        val forwardLength = Math.sqrt((directionX * directionX + directionY * directionY + directionZ * directionZ).toDouble()).toFloat()
+        if( forwardLength < EPSILON ) {
+            return false
+        }
+
+        val fx = directionX / forwardLength
+        val fy = directionY / forwardLength
+        val fz = directionZ / forwardLength
+
+        //right = up x forward, with up = (0, 1, 0)
+        var rx = fz
+        val ry = 0.0f
+        var rz = -fx
+        val rightLength = Math.sqrt((rx * rx + rz * rz).toDouble()).toFloat()
+        if( rightLength < EPSILON ) {
+            return false
+        }
+        rx /= rightLength
+        rz /= rightLength
+
+        //up = forward x right
+        val ux = fy * rz - fz * ry
+        val uy = fz * rx - fx * rz
+        val uz = fx * ry - fy * rx
+
+        //Rotation matrix with right, up and forward as its columns, converted to a quaternion
+        val trace = rx + uy + fz
+        if( trace > 0.0f ) {
+            val s = Math.sqrt((trace + 1.0f).toDouble()).toFloat() * 2.0f
+            out[3] = 0.25f * s
+            out[0] = (uz - fy) / s
+            out[1] = (fx - rz) / s
+            out[2] = (ry - ux) / s
+        } else if( rx > uy && rx > fz ) {
+            val s = Math.sqrt((1.0f + rx - uy - fz).toDouble()).toFloat() * 2.0f
+            out[3] = (uz - fy) / s
+            out[0] = 0.25f * s
+            out[1] = (ux + ry) / s
+            out[2] = (fx + rz) / s
+        } else if( uy > fz ) {
+            val s = Math.sqrt((1.0f + uy - rx - fz).toDouble()).toFloat() * 2.0f
+            out[3] = (fx - rz) / s
+            out[0] = (ux + ry) / s
+            out[1] = 0.25f * s
+            out[2] = (fy + uz) / s
+        } else {
+            val s = Math.sqrt((1.0f + fz - rx - uy).toDouble()).toFloat() * 2.0f
+            out[3] = (ry - ux) / s
+            out[0] = (fx + rz) / s
+            out[1] = (fy + uz) / s
+            out[2] = 0.25f * s
+        }
+
+        return true
+    }
+
+    private fun distanceSq(ax: Float, ay: Float, az: Float, bx: Float, by: Float, bz: Float) : Float {
+        val dx = ax - bx
+        val dy = ay - by
+        val dz = az - bz
+        return dx * dx + dy * dy + dz * dz
+    }
+}
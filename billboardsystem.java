@@ -0,0 +1,90 @@
+package ptrprograms.com.arboardgame
+
+import com.google.ar.sceneform.Node
+import com.google.ar.sceneform.Scene
+import com.google.ar.sceneform.math.Quaternion
+
+//Turns every registered info card towards the camera in one pass per frame.
+//Cards are only touched when the camera or the card has moved more than movementThreshold.
+class BillboardSystem(val movementThreshold: Float = DEFAULT_MOVEMENT_THRESHOLD) {
+
+    companion object {
+        //Five millimetres, well below what can be noticed on a card
+        const val DEFAULT_MOVEMENT_THRESHOLD = 0.005f
+    }
+
+    private class Card(val node: Node) {
+        val lastPositions = FloatArray(6) { Float.NaN }
+    }
+
+    private val cards = ArrayList<Card>()
+    private val thresholdSq = movementThreshold * movementThreshold
+
+    //Scratch objects reused for every card on every frame
+    private val rotationComponents = FloatArray(4)
+    private val rotation = Quaternion()
+
+    var updatedCount = 0L
+        private set
+    var skippedCount = 0L
+        private set
+
+    fun register(node: Node) {
+        for( card in cards ) {
+            if( card.node === node ) {
+                return
+            }
+        }
+        cards.add(Card(node))
+    }
+
+    fun unregister(node: Node) {
+        val iterator = cards.iterator()
+        while( iterator.hasNext() ) {
+            if( iterator.next().node === node ) {
+                iterator.remove()
+                return
+            }
+        }
+    }
+
+    fun size() : Int {
+        return cards.size
+    }
+
+    //Called once per frame from the scene update listener
+    fun update(scene: Scene) {
+        if( cards.isEmpty() ) {
+            return
+        }
+
+        //Positions are read from the translation of the world matrices, worldPosition would hand back a new Vector3
+        //for the camera and every card. The matrices are the nodes' own and must not be changed.
+        val camera = scene.camera.worldModelMatrix.data
+        val cameraX = camera[12]
+        val cameraY = camera[13]
+        val cameraZ = camera[14]
+
+        for( i in cards.indices ) {
+            val card = cards[i]
+            if( !card.node.isActive ) {
+                continue
+            }
+
+            val position = card.node.worldModelMatrix.data
+            val x = position[12]
+            val y = position[13]
+            val z = position[14]
+            if( !BillboardMath.hasMoved(card.lastPositions, cameraX, cameraY, cameraZ, x, y, z, thresholdSq) ) {
+                skippedCount++
+                continue
+            }
+
+            if( BillboardMath.lookRotation(cameraX - x, cameraY - y, cameraZ - z, rotationComponents) ) {
+                rotation.set(rotationComponents[0], rotationComponents[1], rotationComponents[2], rotationComponents[3])
+                card.node.worldRotation = rotation
+                updatedCount++
+            }
+        }
+    }
+}
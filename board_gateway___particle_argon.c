@@ -1,7 +1,32 @@
+#include "GatewayBatcher.h"
+
+// Set to 0 to republish every Mesh event straight away
+#define GATEWAY_BATCHING 1
+
+#define BATCH_WINDOW_MS          250
+#define MIN_PUBLISH_INTERVAL_MS  1000     // Particle allows about one publish per second
+#define HEARTBEAT_INTERVAL_MS    60000
+
+// Particle.publish data limit
+#define MAX_PUBLISH_LENGTH       622
+
+GatewayBatcher batcher(BATCH_WINDOW_MS, MIN_PUBLISH_INTERVAL_MS, HEARTBEAT_INTERVAL_MS);
+
+// data is a base64 TagFrame from the game piece (piece id, uid, sequence number and read time).
+// Batches are comma separated frames, stored in Firebase as piece/<n>/tag/frame for the app to decode.
 void myHandler(const char *event, const char *data)
 {
   Serial.println(data);
-  Particle.publish("gamesetting", data ? data : "none", PRIVATE);
+
+#if GATEWAY_BATCHING
+  if (data && batcher.onFrame(data, millis())) {
+    return;
+  }
+#endif
+
+  if (!Particle.publish("gamesetting", data ? data : "none", PRIVATE)) {
+    Serial.println("Publish failed");
+  }
 }
 
 void setup() {
@@ -10,4 +35,20 @@ void setup() {
 }
 
 void loop() {
+#if GATEWAY_BATCHING
+    char payload[MAX_PUBLISH_LENGTH + 1];
+    uint32_t now = millis();
+
+    if (batcher.pollBatch(now, payload, sizeof(payload))) {
+        // A batch that didn't go out is kept and retried on the next window
+        batcher.onPublished(Particle.publish("gamesetting", payload, PRIVATE), millis());
+    }
+
+    if (batcher.pollHeartbeat(now, payload, sizeof(payload))) {
+        Particle.publish("gamesetting-heartbeat", payload, PRIVATE);
+        Serial.printlnf("received=%lu suppressed=%lu replaced=%lu batched=%lu batches=%lu failed=%lu invalid=%lu tableFull=%lu",
+            batcher.received, batcher.suppressed, batcher.replaced, batcher.batched, batcher.batches, batcher.failed,
+            batcher.invalid, batcher.tableFull);
+    }
+#endif
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+package ptrprograms.com.arboardgame
+
+//The part of applying a board snapshot that doesn't need the scene: works out which pieces to take down and
+//which to build, and keeps every piece on the same slot for as long as the layout lives
+class BoardLayout {
+
+    //What the layout drives, the board's nodes in BoardScene
+    interface Target {
+        fun hide(pieceId: String)
+        fun show(pieceId: String, slot: Int)
+    }
+
+    private val model = BoardModel()
+
+    //pieceId -> slot, also for pieces that have left since they get their spot back when they return
+    private val slots = HashMap<String, Int>()
+
+    //Takes the full pieceId -> planet snapshot and has the target take down and build only what changed
+    fun apply(snapshot: Map<String, String?>, target: Target) : BoardModel.Diff {
+        val diff = model.update(snapshot)
+
+        for( pieceId in diff.removed ) {
+            target.hide(pieceId)
+        }
+
+        for( pieceId in diff.added ) {
+            target.show(pieceId, slots.getOrPut(pieceId) { slots.size })
+        }
+
+        for( pieceId in diff.changed ) {
+            target.hide(pieceId)
+            target.show(pieceId, slotOf(pieceId))
+        }
+
+        return diff
+    }
+
+    //Builds every piece currently on the board, e.g. once the board has been placed
+    fun showAll(target: Target) {
+        for( (pieceId, slot) in slots ) {
+            if( model.planetFor(pieceId) != null ) {
+                target.show(pieceId, slot)
+            }
+        }
+    }
+
+    fun planetFor(pieceId: String) : String? {
+        return model.planetFor(pieceId)
+    }
+
+    fun slotOf(pieceId: String) : Int {
+        return slots[pieceId] ?: 0
+    }
+
+    fun size() : Int {
+        return model.size()
+    }
+}
@@ -0,0 +1,74 @@
+package ptrprograms.com.arboardgame
+
+//Last known planet for every game piece on the board. Each update is compared against it so only the
+//pieces that actually changed need to touch the scene.
+class BoardModel {
+
+    private val pieces = HashMap<String, String>()
+
+    //Pieces whose planet was added, changed or removed by the last update
+    class Diff(
+        val added: List<String>,
+        val changed: List<String>,
+        val removed: List<String>
+    ) {
+        fun isEmpty() : Boolean {
+            return added.isEmpty() && changed.isEmpty() && removed.isEmpty()
+        }
+
+        fun size() : Int {
+            return added.size + changed.size + removed.size
+        }
+    }
+
+    //Takes the full pieceId -> planet snapshot and returns what changed since the last one.
+    //Pieces reporting "none" are treated as having left the board.
+    @Synchronized
+    fun update(snapshot: Map<String, String?>) : Diff {
+        val added = ArrayList<String>()
+        val changed = ArrayList<String>()
+        val removed = ArrayList<String>()
+        var present = 0
+
+        for( (pieceId, planet) in snapshot ) {
+            if( planet == null || planet == TagEventPipeline.NONE ) {
+                if( pieces.remove(pieceId) != null ) {
+                    removed.add(pieceId)
+                }
+                continue
+            }
+
+            present++
+            val previous = pieces.put(pieceId, planet)
+            if( previous == null ) {
+                added.add(pieceId)
+            } else if( previous != planet ) {
+                changed.add(pieceId)
+            }
+        }
+
+        //Anything left over that wasn't in the snapshot has been taken off the board
+        if( pieces.size > present ) {
+            val iterator = pieces.keys.iterator()
+            while( iterator.hasNext() ) {
+                val pieceId = iterator.next()
+                if( !snapshot.containsKey(pieceId) ) {
+                    iterator.remove()
+                    removed.add(pieceId)
+                }
+            }
+        }
+
+        return Diff(added, changed, removed)
+    }
+
+    @Synchronized
+    fun planetFor(pieceId: String) : String? {
+        return pieces[pieceId]
+    }
+
+    @Synchronized
+    fun size() : Int {
+        return pieces.size
+    }
+}
@@ -0,0 +1,106 @@
+package ptrprograms.com.arboardgame
+
+import android.content.Context
+import com.google.ar.sceneform.AnchorNode
+import com.google.ar.sceneform.Node
+import com.google.ar.sceneform.math.Vector3
+
+//Keeps one node per game piece under a single board anchor and only touches the pieces a diff reports.
+//BoardLayout decides what changes, this class turns that into nodes.
+class BoardScene(
+    val context: Context,
+    val renderableCache: RenderableCache,
+    val infoCallback: InfoCallback?,
+    val billboardSystem: BillboardSystem?,
+    val cardPool: InfoCardPool?,
+    val pieceSpacing: Float = DEFAULT_PIECE_SPACING,
+    val lodSystem: LodSystem? = null
+) {
+
+    companion object {
+        const val DEFAULT_PIECE_SPACING = 0.35f
+    }
+
+    private val layout = BoardLayout()
+
+    //pieceId -> base node holding the piece's CelestialBody
+    private val pieceNodes = HashMap<String, Node>()
+
+    private val nodes = object : BoardLayout.Target {
+        override fun hide(pieceId: String) {
+            pieceNodes.remove(pieceId)?.setParent(null)
+        }
+
+        override fun show(pieceId: String, slot: Int) {
+            showPiece(pieceId)
+        }
+    }
+
+    private var anchorNode: AnchorNode? = null
+
+    var lastApplyTimeNs = 0L
+        private set
+
+    fun isPlaced() : Boolean {
+        return anchorNode != null
+    }
+
+    //Attaches the board to an anchor and builds every piece currently known
+    fun place(anchor: AnchorNode) {
+        release()
+        anchorNode = anchor
+
+        layout.showAll(nodes)
+    }
+
+    //Detaches the board and releases its anchor
+    fun release() {
+        for( node in pieceNodes.values ) {
+            node.setParent(null)
+        }
+        pieceNodes.clear()
+
+        anchorNode?.anchor?.detach()
+        anchorNode?.setParent(null)
+        anchorNode = null
+    }
+
+    //Must be called on the UI thread with the full pieceId -> planet snapshot
+    fun update(snapshot: Map<String, String?>) : BoardModel.Diff {
+        val startTime = System.nanoTime()
+        val diff = layout.apply(snapshot, nodes)
+        lastApplyTimeNs = System.nanoTime() - startTime
+        return diff
+    }
+
+    fun pieceCount() : Int {
+        return pieceNodes.size
+    }
+
+    private fun showPiece(pieceId: String) {
+        val anchor = anchorNode ?: return
+        val planet = layout.planetFor(pieceId) ?: return
+        val planetId = renderableCache.catalog.idOf(planet)
+        val stage = renderableCache.get(planetId, LoadQueue.PRIORITY_VISIBLE) ?: return
+
+        stage.thenAccept { renderable ->
+            //The piece may have changed or left while its model was loading
+            if( anchorNode !== anchor || layout.planetFor(pieceId) != planet || pieceNodes.containsKey(pieceId) ) {
+                return@thenAccept
+            }
+
+            val base = Node()
+            base.localPosition = Vector3(layout.slotOf(pieceId) * pieceSpacing, 0.0f, 0.0f)
+
+            val celestialObject =
+                CelestialBody(context = context, planet = renderableCache.catalog[planetId], renderable = renderable, infoCallback = infoCallback,
+                    billboardSystem = billboardSystem, cardPool = cardPool, lodSystem = lodSystem)
+            celestialObject.setParent(base)
+            celestialObject.localPosition = Vector3(0.0f, 0.5f, 0.0f)
+            celestialObject.localScale = Vector3(0.5f, 0.5f, 0.5f)
+
+            pieceNodes[pieceId] = base
+            anchor.addChild(base)
+        }
+    }
+}
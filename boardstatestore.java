@@ -0,0 +1,200 @@
+package ptrprograms.com.arboardgame
+
+import java.io.File
+import java.io.FileWriter
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.util.concurrent.Executor
+
+//Last known planet on every game piece, kept in a small append-only file so the next launch can show something
+//before the network has delivered anything. Each change is appended as one "pieceId<TAB>planet" line on the
+//executor. Once the log has grown past maxLogEntries lines it is rewritten from the current state.
+class BoardStateStore(
+    val file: File,
+    private val executor: Executor,
+    val maxLogEntries: Int = DEFAULT_MAX_LOG_ENTRIES
+) {
+
+    companion object {
+        const val DEFAULT_MAX_LOG_ENTRIES = 256
+        private const val SEPARATOR = '\t'
+        private const val NEWLINE: Byte = 10
+
+        //Replays the log into a pieceId -> planet map. Only lines ending in a newline count, anything after the
+        //last one was cut short by the app being killed mid-write. Unreadable lines are skipped.
+        fun replay(log: CharSequence, into: MutableMap<String, String>) : Int {
+            var count = 0
+            var start = 0
+            while( true ) {
+                val end = indexOf(log, '\n', start, log.length)
+                if( end < 0 ) {
+                    break
+                }
+
+                //Exactly one separator with something on either side of it
+                val split = indexOf(log, SEPARATOR, start, end)
+                if( split > start && split < end - 1 && indexOf(log, SEPARATOR, split + 1, end) < 0 ) {
+                    val pieceId = log.substring(start, split)
+                    val planet = log.substring(split + 1, end)
+                    if( planet == TagEventPipeline.NONE ) {
+                        into.remove(pieceId)
+                    } else {
+                        into[pieceId] = planet
+                    }
+                    count++
+                }
+
+                start = end + 1
+            }
+            return count
+        }
+
+        //Length of the log up to and including its last newline. A newline byte never occurs inside another
+        //UTF-8 character, so this is where a torn tail starts.
+        fun completeLength(bytes: ByteArray) : Int {
+            for( i in bytes.indices.reversed() ) {
+                if( bytes[i] == NEWLINE ) {
+                    return i + 1
+                }
+            }
+            return 0
+        }
+
+        private fun indexOf(text: CharSequence, char: Char, from: Int, to: Int) : Int {
+            for( i in from until to ) {
+                if( text[i] == char ) {
+                    return i
+                }
+            }
+            return -1
+        }
+
+        fun encode(pieceId: String, planet: String) : String {
+            return "$pieceId$SEPARATOR$planet\n"
+        }
+    }
+
+    private val pieces = LinkedHashMap<String, String>()
+    private var logEntries = 0
+
+    var writes = 0L
+        private set
+    var compactions = 0L
+        private set
+    var writeFailures = 0L
+        private set
+
+    init {
+        if( maxLogEntries < 1 ) {
+            throw IllegalArgumentException("maxLogEntries must be at least 1")
+        }
+    }
+
+    //Reads the file on the calling thread. It only holds a line per change since the last compaction,
+    //so this takes a few milliseconds at most. A torn last line is cut off so the next append starts on a
+    //line of its own.
+    @Synchronized
+    fun load() : Map<String, String> {
+        pieces.clear()
+        logEntries = 0
+
+        if( file.exists() ) {
+            try {
+                val bytes = file.readBytes()
+                val length = completeLength(bytes)
+                logEntries = replay(String(bytes, 0, length, Charsets.UTF_8), pieces)
+                if( length < bytes.size ) {
+                    truncate(length)
+                }
+            } catch( e: IOException ) {
+                pieces.clear()
+            }
+        }
+
+        return HashMap(pieces)
+    }
+
+    @Synchronized
+    fun get(pieceId: String) : String? {
+        return pieces[pieceId]
+    }
+
+    @Synchronized
+    fun snapshot() : Map<String, String> {
+        return HashMap(pieces)
+    }
+
+    //Records the planet on a piece, or "none" once it has left. Unchanged values aren't written.
+    fun put(pieceId: String, planet: String) {
+        if( pieceId.isEmpty() || pieceId.indexOf(SEPARATOR) >= 0 || pieceId.indexOf('\n') >= 0 ||
+            planet.isEmpty() || planet.indexOf(SEPARATOR) >= 0 || planet.indexOf('\n') >= 0 ) {
+            throw IllegalArgumentException("Piece ids and planets can't be empty or contain tabs or newlines")
+        }
+
+        val line: String
+        var compacted: String? = null
+        synchronized(this) {
+            val previous = if( planet == TagEventPipeline.NONE ) pieces.remove(pieceId) else pieces.put(pieceId, planet)
+            if( previous == planet || (previous == null && planet == TagEventPipeline.NONE) ) {
+                return
+            }
+
+            line = encode(pieceId, planet)
+            logEntries++
+            if( logEntries > maxLogEntries ) {
+                val builder = StringBuilder()
+                for( (id, value) in pieces ) {
+                    builder.append(encode(id, value))
+                }
+                compacted = builder.toString()
+                logEntries = pieces.size
+            }
+        }
+
+        val contents = compacted
+        executor.execute {
+            if( contents != null ) {
+                rewrite(contents)
+            } else {
+                append(line)
+            }
+        }
+    }
+
+    private fun append(line: String) {
+        try {
+            FileWriter(file, true).use { writer -> writer.write(line) }
+            writes++
+        } catch( e: IOException ) {
+            writeFailures++
+        }
+    }
+
+    private fun truncate(length: Int) {
+        try {
+            RandomAccessFile(file, "rw").use { it.setLength(length.toLong()) }
+        } catch( e: IOException ) {
+            //Have the next put rewrite the whole file instead
+            logEntries = maxLogEntries
+        }
+    }
+
+    //Written next to the log and renamed over it so a crash never leaves half a snapshot behind
+    private fun rewrite(contents: String) {
+        val temp = File(file.parentFile, file.name + ".tmp")
+        try {
+            temp.writeText(contents)
+            if( !temp.renameTo(file) ) {
+                throw IOException("Couldn't replace ${file.name}")
+            }
+            writes++
+            compactions++
+        } catch( e: IOException ) {
+            writeFailures++
+        }
+    }
+
+    override fun toString() : String {
+        return "BoardStateStore(pieces=${pieces.size}, writes=$writes, compactions=$compactions, failures=$writeFailures)"
+    }
+}
@@ -6,26 +6,58 @@ import android.widget.TextView
 import com.google.ar.sceneform.FrameTime
 import com.google.ar.sceneform.HitTestResult
 import com.google.ar.sceneform.Node
-import com.google.ar.sceneform.math.Quaternion
 import com.google.ar.sceneform.math.Vector3
 import com.google.ar.sceneform.rendering.ModelRenderable
 import com.google.ar.sceneform.rendering.ViewRenderable
 
 class CelestialBody (
     val context: Context,
-    val celestialName: String,
-    val planetScale: Float = 1.0f,
-    val tilt : Float = 0.0f,
-    val clockwise: Boolean = false,
-    val rotationSpeedMultipler: Float = 1.0f,
-    val rotationPerSecond: Float = 90.0f,
-    val renderable: ModelRenderable,
-    val infoCallback: InfoCallback?
+    var celestialName: String,
+    var planetScale: Float = 1.0f,
+    var tilt : Float = 0.0f,
+    var clockwise: Boolean = false,
+    var rotationSpeedMultipler: Float = 1.0f,
+    var rotationPerSecond: Float = 90.0f,
+    var renderable: ModelRenderable,
+    val infoCallback: InfoCallback?,
+    //Shared system that turns the info card in one pass per frame. Without one the card is turned from onUpdate.
+    val billboardSystem: BillboardSystem? = null,
+    //Pre-built info cards to borrow from instead of inflating a new one on every activation
+    val cardPool: InfoCardPool? = null,
+    //Catalog entry this body shows, passed back when it is tapped
+    var planetId: Int = PlanetCatalog.UNKNOWN,
+    //Shared system that swaps in coarser models when the body is small on screen
+    val lodSystem: LodSystem? = null
 ) : Node(), Node.OnTapListener {
 
+    //Takes scale, tilt and spin from the planet catalog
+    constructor(
+        context: Context,
+        planet: PlanetInfo,
+        renderable: ModelRenderable,
+        infoCallback: InfoCallback?,
+        billboardSystem: BillboardSystem? = null,
+        cardPool: InfoCardPool? = null,
+        lodSystem: LodSystem? = null
+    ) : this(
+        context = context,
+        celestialName = planet.name,
+        planetScale = planet.displayScale,
+        tilt = planet.axialTiltDeg,
+        clockwise = planet.clockwise,
+        rotationPerSecond = planet.degreesPerSecond,
+        renderable = renderable,
+        infoCallback = infoCallback,
+        billboardSystem = billboardSystem,
+        cardPool = cardPool,
+        planetId = planet.id,
+        lodSystem = lodSystem)
+
     private var infoCard: Node? = null
     private val INFO_CARD_Y_POS_COEFFICIENT = 0.55f
     private var planetNode : RotatingNode? = null
+    private var ownBillboard : BillboardSystem? = null
+    private var isLoadingCard = false
 
     init {
         setOnTapListener(this)
@@ -33,7 +65,7 @@ class CelestialBody (
 
     override fun onTap(p0: HitTestResult?, p1: MotionEvent?) {
         if( infoCallback != null ) {
-            infoCallback.showInfo()
+            infoCallback.showInfo(planetId)
         }
     }
 
@@ -43,17 +75,17 @@ class CelestialBody (
             infoCard!!.setParent(this)
             infoCard!!.isEnabled = false
             infoCard!!.localPosition = Vector3(0.0f, planetScale * INFO_CARD_Y_POS_COEFFICIENT, 0.0f)
+        }
 
-            ViewRenderable.builder()
-                .setView(context, R.layout.celestial_card_view)
-                .build()
-                .thenAccept({ renderable ->
-                    infoCard!!.renderable = renderable
-                    val textView = renderable.view as TextView
-                    textView.text = celestialName
-                    infoCard!!.isEnabled = !infoCard!!.isEnabled
-                })
+        if( infoCard!!.renderable == null && !isLoadingCard ) {
+            loadInfoCard()
+        }
 
+        if( billboardSystem != null ) {
+            billboardSystem.register(infoCard!!)
+        } else if( ownBillboard == null ) {
+            ownBillboard = BillboardSystem()
+            ownBillboard!!.register(infoCard!!)
         }
 
         if( planetNode == null ) {
@@ -69,20 +101,112 @@ class CelestialBody (
 
         }
 
+        lodSystem?.register(planetNode!!, planetId)
+
+    }
+
+    //Shows a different body on the same node tree instead of building a new one
+    fun rebind(
+        celestialName: String,
+        renderable: ModelRenderable,
+        planetScale: Float = 1.0f,
+        tilt: Float = 0.0f,
+        clockwise: Boolean = false,
+        rotationPerSecond: Float = 90.0f
+    ) {
+        this.celestialName = celestialName
+        this.renderable = renderable
+        this.planetScale = planetScale
+        this.tilt = tilt
+        this.clockwise = clockwise
+        this.rotationPerSecond = rotationPerSecond
+
+        if( planetNode != null ) {
+            planetNode!!.renderable = renderable
+            planetNode!!.localScale = Vector3(planetScale, planetScale, planetScale)
+            planetNode!!.configure(clockwise, tilt, rotationSpeedMultipler, rotationPerSecond)
+            if( isActive ) {
+                lodSystem?.register(planetNode!!, planetId)
+            }
+        }
+
+        if( infoCard != null ) {
+            infoCard!!.localPosition = Vector3(0.0f, planetScale * INFO_CARD_Y_POS_COEFFICIENT, 0.0f)
+            val card = infoCard!!.renderable as? ViewRenderable
+            if( card != null ) {
+                (card.view as TextView).text = celestialName
+            }
+        }
+    }
 
+    fun rebind(planet: PlanetInfo, renderable: ModelRenderable) {
+        planetId = planet.id
+        rebind(
+            celestialName = planet.name,
+            renderable = renderable,
+            planetScale = planet.displayScale,
+            tilt = planet.axialTiltDeg,
+            clockwise = planet.clockwise,
+            rotationPerSecond = planet.degreesPerSecond)
+    }
+
+    override fun onDeactivate() {
+        if( planetNode != null && lodSystem != null ) {
+            //Back to full detail so the next activation starts from a known level
+            lodSystem.unregister(planetNode!!)
+            planetNode!!.renderable = renderable
+        }
+
+        if( infoCard != null ) {
+            billboardSystem?.unregister(infoCard!!)
+            releaseInfoCard()
+        }
+    }
+
+    private fun loadInfoCard() {
+        val stage = if( cardPool != null ) {
+            cardPool.acquire()
+        } else {
+            ViewRenderable.builder()
+                .setView(context, R.layout.celestial_card_view)
+                .build()
+        }
+
+        isLoadingCard = true
+        stage.thenAccept({ renderable ->
+            isLoadingCard = false
+
+            //The body may have been taken off the scene while the card was being built
+            if( !isActive ) {
+                cardPool?.release(renderable)
+                return@thenAccept
+            }
+
+            infoCard!!.renderable = renderable
+            val textView = renderable.view as TextView
+            textView.text = celestialName
+            infoCard!!.isEnabled = true
+        })
+    }
+
+    //Gives a borrowed card back to the pool so the next body can reuse it
+    private fun releaseInfoCard() {
+        if( cardPool == null ) {
+            return
+        }
+
+        val renderable = infoCard!!.renderable as? ViewRenderable ?: return
+        infoCard!!.isEnabled = false
+        infoCard!!.renderable = null
+        cardPool.release(renderable)
     }
 
     override fun onUpdate(p0: FrameTime?) {
         super.onUpdate(p0)
-        if( scene == null || infoCard == null ) {
+        if( scene == null || ownBillboard == null ) {
             return
         }
 
-        val cameraPosition = scene!!.camera.worldPosition
-        val cardPosition = infoCard!!.worldPosition
-        val direction = Vector3.subtract(cameraPosition, cardPosition)
-        val lookRotation = Quaternion.lookRotation(direction, Vector3.up())
-        infoCard!!.worldRotation = lookRotation
-
+        ownBillboard!!.update(scene!!)
     }
 }
\ No newline at end of file
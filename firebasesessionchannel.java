@@ -0,0 +1,102 @@
+package ptrprograms.com.arboardgame
+
+import android.util.Log
+import com.google.firebase.database.ChildEventListener
+import com.google.firebase.database.DataSnapshot
+import com.google.firebase.database.DatabaseError
+import com.google.firebase.database.DatabaseReference
+import com.google.firebase.database.FirebaseDatabase
+import com.google.firebase.database.ValueEventListener
+
+//Shared session messages in the realtime database under session/<id>. The latest keyframe goes to "keyframe", so a
+//viewer that joins late gets the whole board straight away. Deltas are pushed as children of "deltas" rather than
+//written over one value, a listener is only sure to see the latest value and each delta holds just what changed.
+//A keyframe clears "deltas" in the same update, so what is left there always follows the current keyframe.
+//Deltas are only listened to once a keyframe has come in.
+class FirebaseSessionChannel(
+    val database: FirebaseDatabase,
+    val sessionId: String
+) : SessionChannel {
+
+    private val sessionReference = database.getReference("session/$sessionId")
+    private val deltasReference = sessionReference.child("deltas")
+    private val keyframeReference = sessionReference.child("keyframe")
+    private val valueListeners = ArrayList<Pair<DatabaseReference, ValueEventListener>>()
+    private val childListeners = ArrayList<Pair<DatabaseReference, ChildEventListener>>()
+
+    override fun publish(message: String, isKeyframe: Boolean) {
+        if( isKeyframe ) {
+            val update = HashMap<String, Any?>()
+            update["keyframe"] = message
+            update["deltas"] = null
+            sessionReference.updateChildren(update)
+        } else {
+            deltasReference.push().setValue(message)
+        }
+    }
+
+    override fun subscribe(listener: (String) -> Unit) {
+        var isListeningToDeltas = false
+        listenToKeyframes { message ->
+            listener(message)
+            if( !isListeningToDeltas ) {
+                isListeningToDeltas = true
+                listenToDeltas(listener)
+            }
+        }
+    }
+
+    override fun close() {
+        for( (reference, listener) in valueListeners ) {
+            reference.removeEventListener(listener)
+        }
+        valueListeners.clear()
+
+        for( (reference, listener) in childListeners ) {
+            reference.removeEventListener(listener)
+        }
+        childListeners.clear()
+    }
+
+    private fun listenToKeyframes(onMessage: (String) -> Unit) {
+        val listener = object : ValueEventListener {
+            override fun onDataChange(dataSnapshot: DataSnapshot) {
+                val message = dataSnapshot.getValue(String::class.java) ?: return
+                onMessage(message)
+            }
+
+            override fun onCancelled(error: DatabaseError) {
+                Log.w("FirebaseSessionChannel", "Failed to read value.", error.toException())
+            }
+        }
+
+        keyframeReference.addValueEventListener(listener)
+        valueListeners.add(Pair(keyframeReference, listener))
+    }
+
+    //Every delta still there is handed over in the order it was pushed, then each new one as it comes in
+    private fun listenToDeltas(onMessage: (String) -> Unit) {
+        val listener = object : ChildEventListener {
+            override fun onChildAdded(dataSnapshot: DataSnapshot, previousChildName: String?) {
+                val message = dataSnapshot.getValue(String::class.java) ?: return
+                onMessage(message)
+            }
+
+            override fun onChildChanged(dataSnapshot: DataSnapshot, previousChildName: String?) {
+            }
+
+            override fun onChildRemoved(dataSnapshot: DataSnapshot) {
+            }
+
+            override fun onChildMoved(dataSnapshot: DataSnapshot, previousChildName: String?) {
+            }
+
+            override fun onCancelled(error: DatabaseError) {
+                Log.w("FirebaseSessionChannel", "Failed to read deltas.", error.toException())
+            }
+        }
+
+        deltasReference.addChildEventListener(listener)
+        childListeners.add(Pair(deltasReference, listener))
+    }
+}
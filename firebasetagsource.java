@@ -0,0 +1,87 @@
+package ptrprograms.com.arboardgame
+
+import android.util.Log
+import com.google.firebase.database.DataSnapshot
+import com.google.firebase.database.DatabaseError
+import com.google.firebase.database.DatabaseReference
+import com.google.firebase.database.FirebaseDatabase
+import com.google.firebase.database.ValueEventListener
+
+//Reads tags from piece/<id>/tag in the realtime database. A binary frame (see TagFrame) is preferred when
+//the catalog knows its uid, otherwise the planet and timestamp children are used.
+class FirebaseTagSource(
+    val database: FirebaseDatabase,
+    val catalog: PlanetCatalog? = null
+) : TagDataSource {
+
+    private val listeners = ArrayList<Pair<DatabaseReference, ValueEventListener>>()
+
+    //Listeners are called on the main thread, so one view is enough for every frame
+    private val frame = TagFrame()
+
+    //Uids of tags that aren't in the catalog and have already been reported
+    private val unknownUids = HashSet<Long>()
+
+    override fun observePiece(pieceId: String, listener: (TagReading) -> Unit) {
+        listen(database.getReference("piece/$pieceId/tag")) { dataSnapshot ->
+            listener(readTag(dataSnapshot))
+        }
+    }
+
+    override fun observeBoard(listener: (Map<String, TagReading>) -> Unit) {
+        listen(database.getReference("piece")) { dataSnapshot ->
+            val snapshot = HashMap<String, TagReading>()
+            for( piece in dataSnapshot.children ) {
+                val pieceId = piece.key ?: continue
+                snapshot[pieceId] = readTag(piece.child("tag"))
+            }
+            listener(snapshot)
+        }
+    }
+
+    override fun close() {
+        for( (reference, listener) in listeners ) {
+            reference.removeEventListener(listener)
+        }
+        listeners.clear()
+    }
+
+    private fun listen(reference: DatabaseReference, onData: (DataSnapshot) -> Unit) {
+        val listener = object : ValueEventListener {
+            override fun onDataChange(dataSnapshot: DataSnapshot) {
+                onData(dataSnapshot)
+            }
+
+            override fun onCancelled(error: DatabaseError) {
+                Log.w("FirebaseTagSource", "Failed to read value.", error.toException())
+            }
+        }
+
+        reference.addValueEventListener(listener)
+        listeners.add(Pair(reference, listener))
+    }
+
+    private fun readTag(tag: DataSnapshot) : TagReading {
+        val encoded = tag.child("frame").getValue(String::class.java)
+        if( catalog != null && encoded != null && frame.decodeBase64(encoded) ) {
+            if( !frame.isPresent ) {
+                return TagReading(TagEventPipeline.NONE, frame.timestampMs)
+            }
+
+            val uidKey = frame.uidKey()
+            val planetId = catalog.uidTable.get(uidKey)
+            if( planetId != PlanetCatalog.UNKNOWN ) {
+                return TagReading(catalog[planetId].name, frame.timestampMs)
+            }
+
+            if( !tag.hasChild("planet") && unknownUids.add(uidKey) ) {
+                Log.w("FirebaseTagSource", "Tag ${frame.uidHex()} on piece ${frame.pieceId} isn't in the catalog, " +
+                        "add it to the tagUids of its body in ${PlanetCatalog.ASSET_NAME}")
+            }
+        }
+
+        return TagReading(
+            planet = tag.child("planet").getValue(String::class.java),
+            timestampMs = tag.child("timestamp").getValue(Long::class.javaObjectType) ?: 0L)
+    }
+}
@@ -8,48 +8,327 @@
 
 RFID RC522(SS_PIN, RST_PIN, MOSI_PIN, MISO_PIN, SCK_PIN);
 
+// Set to 1 when the RC522 IRQ pin is wired to IRQ_PIN
+#define USE_CARD_IRQ  0
+#define IRQ_PIN       D6
+
+// Scans run every SCAN_FAST_MS for a while after the card comes or goes, then back off to SCAN_IDLE_MS
+#define SCAN_FAST_MS          50
+#define SCAN_FAST_WINDOW_MS   3000
+#define SCAN_IDLE_MS          1000
+
+// How long a card gets to answer an armed WUPA, and to power up after the antenna is switched on
+#define IRQ_WAIT_MS           5
+#define ANTENNA_SETTLE_MS     5
+
+// A card at the edge of the field can miss a request now and then, so a single miss doesn't mean
+// it has left the reader
+#define MISSES_BEFORE_NONE    2
+
+// The state is published again now and then in case a mesh publish was lost
+#define REPUBLISH_MS          5000
+#define STATS_INTERVAL_MS     10000
+
+// How often the clock is checked for the second ticking over, which bounds the error of the read time
+#define EPOCH_POLL_MS         5
+
+volatile bool cardIrq = false;
+
+// Anchors epochMillis(), see below
+void pollEpoch();
+Timer epochTimer(EPOCH_POLL_MS, pollEpoch);
+
+void onCardIrq()
+{
+  cardIrq = true;
+}
 
 void setup()
 { 
   Serial.begin(9600);
   
   RC522.init();
+
+#if USE_CARD_IRQ
+  pinMode(IRQ_PIN, INPUT_PULLUP);
+  attachInterrupt(IRQ_PIN, onCardIrq, FALLING);
+#endif
+
+  epochTimer.start();
 }
 
-bool flag = false;
+bool cardPresent = false;
+bool fieldOn = true;
+uint8_t cardUid[5];
+uint8_t misses = 0;
 
-void loop()
+uint32_t scanIntervalMs = SCAN_FAST_MS;
+uint32_t lastChangeMs = 0;
+uint32_t lastAgreeMs = 0;     // Last scan that agreed with the reported state
+uint32_t lastPublishMs = 0;
+uint32_t lastStatsMs = 0;
+
+uint32_t scans = 0;           // Times the reader was asked for a card
+uint32_t irqAnswers = 0;      // Armed requests a card answered
+uint32_t cardReads = 0;       // Full wakeCard() requests
+uint32_t changes = 0;
+uint32_t totalDetectMs = 0;
+uint32_t maxDetectMs = 0;
+
+// Identifies this game piece on the board
+#define PIECE_ID    1
+
+// serNum holds the 4 uid bytes followed by their check byte, the XOR of the four. The check byte
+// adds nothing once anticollision has verified it, so only the uid goes in the frame. The app still
+// takes tag uids written with it, see TagUidTable.key(hex).
+#define UID_LENGTH  4
+
+// Frame layout, see TagFrame in the app
+#define FRAME_SIZE          24
+#define FRAME_VERSION       1
+#define FRAME_FLAG_PRESENT  0x01
+#define FRAME_MAX_UID       7
+
+uint32_t sequence = 0;
+
+// Time.now() only has second resolution, so millis() is anchored to the moment the second ticks over.
+// A timer watches for it every EPOCH_POLL_MS instead of the main loop, which can sleep for a second.
+volatile uint32_t anchorSeconds = 0;    // 0 until a tick over has been seen
+volatile uint32_t anchorMillis = 0;
+uint32_t lastSeconds = 0;
+
+void pollEpoch()
+{
+  if (!Time.isValid()) {
+    lastSeconds = 0;
+    anchorSeconds = 0;
+    return;
+  }
+
+  uint32_t now = Time.now();
+  if (now != lastSeconds) {
+    // The first second seen could be anywhere in its tick, only a change marks the start of one
+    if (lastSeconds != 0) {
+      anchorMillis = millis();
+      anchorSeconds = now;
+    }
+    lastSeconds = now;
+  }
+}
+
+// Returns the current epoch time in milliseconds, to within EPOCH_POLL_MS, or 0 when the clock hasn't been
+// synced and anchored yet
+uint64_t epochMillis()
+{
+  uint32_t seconds;
+  uint32_t since;
+
+  // The timer can re-anchor in between the two reads
+  do {
+    seconds = anchorSeconds;
+    since = millis() - anchorMillis;
+  } while (seconds != anchorSeconds);
+
+  if (seconds == 0) {
+    return 0;
+  }
+  return (uint64_t) seconds * 1000 + since;
+}
+
+void putBigEndian(uint8_t *out, uint64_t value, uint8_t length)
+{
+  for (int8_t i = length - 1; i >= 0; i--) {
+    out[i] = value & 0xFF;
+    value >>= 8;
+  }
+}
+
+// Encodes length bytes as base64 into out, which needs room for 4 * ceil(length / 3) + 1 characters
+void base64Encode(const uint8_t *in, uint8_t length, char *out)
+{
+  static const char alphabet[] = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+  uint8_t i = 0;
+  uint8_t o = 0;
+
+  while (i + 2 < length) {
+    uint32_t chunk = ((uint32_t) in[i] << 16) | ((uint32_t) in[i + 1] << 8) | in[i + 2];
+    out[o++] = alphabet[(chunk >> 18) & 0x3F];
+    out[o++] = alphabet[(chunk >> 12) & 0x3F];
+    out[o++] = alphabet[(chunk >> 6) & 0x3F];
+    out[o++] = alphabet[chunk & 0x3F];
+    i += 3;
+  }
+
+  if (i < length) {
+    uint32_t chunk = (uint32_t) in[i] << 16;
+    if (i + 1 < length) {
+      chunk |= (uint32_t) in[i + 1] << 8;
+    }
+    out[o++] = alphabet[(chunk >> 18) & 0x3F];
+    out[o++] = alphabet[(chunk >> 12) & 0x3F];
+    out[o++] = (i + 1 < length) ? alphabet[(chunk >> 6) & 0x3F] : '=';
+    out[o++] = '=';
+  }
+
+  out[o] = '\0';
+}
+
+// Publishes a fixed size frame with the piece id, uid, a sequence number and the read time.
+// uid is NULL when the card has left the reader.
+void publishTag(const uint8_t *uid)
 {
-  uint8_t i;
+  uint8_t frame[FRAME_SIZE];
+  char payload[4 * (FRAME_SIZE / 3) + 1];
+
+  memset(frame, 0, sizeof(frame));
+  frame[0] = FRAME_VERSION;
+  frame[1] = uid ? FRAME_FLAG_PRESENT : 0;
+  putBigEndian(&frame[2], PIECE_ID, 2);
+  frame[4] = uid ? UID_LENGTH : 0;
+  if (uid) {
+    memcpy(&frame[5], uid, UID_LENGTH);
+  }
+  putBigEndian(&frame[12], sequence++, 4);
+  putBigEndian(&frame[16], epochMillis(), 8);
 
-  if (RC522.isCard())
+  base64Encode(frame, FRAME_SIZE, payload);
+  Mesh.publish("nfc-tag", payload);
+}
+
+// Asks the reader for a card once. With the IRQ wired up the empty case costs a few register writes
+// instead of wakeCard() polling the status registers until its 24ms timeout.
+// A true return means a card answered and is in the ready state, waiting for readCardSerial().
+bool scanForCard()
+{
+  scans++;
+
+  if (!fieldOn) {
+    RC522.antennaOn();
+    fieldOn = true;
+    delay(ANTENNA_SETTLE_MS);
+  }
+
+#if USE_CARD_IRQ
+  cardIrq = false;
+  RC522.armCardIrq();
+  delay(IRQ_WAIT_MS);
+  uint8_t atqa[2];
+  bool answered = (cardIrq || RC522.cardIrqPending()) && RC522.readCardIrqAnswer(atqa);
+  RC522.clearCardIrq();
+
+  // The card has already answered the WUPA, asking it again would get no reply
+  if (answered) {
+    irqAnswers++;
+  }
+  return answered;
+#else
+  cardReads++;
+  return RC522.wakeCard();
+#endif
+}
+
+// Upper bound on how late a change was noticed: the time since the last scan that still saw the old state
+uint32_t recordChange(uint32_t now)
+{
+  uint32_t detectMs = now - lastAgreeMs;
+
+  changes++;
+  totalDetectMs += detectMs;
+  if (detectMs > maxDetectMs) {
+    maxDetectMs = detectMs;
+  }
+
+  lastChangeMs = now;
+  lastPublishMs = now;
+  return detectMs;
+}
+
+void printUid(const uint8_t *uid)
+{
+  for (uint8_t i = 0; i < UID_LENGTH; i++)
   {
-    flag = false;
-    String address = "";
-    RC522.readCardSerial();
+    // Zero padded so every uid prints the same width
+    if (uid[i] < 0x10) {
+      Serial.print("0");
+    }
+    Serial.print(uid[i],HEX);
+    Serial.print(" ");
+  }
+}
+
+void onScan(bool seen, uint32_t now)
+{
+  if (seen && RC522.readCardSerial()) {
+    // Halted so the next scan starts from a known state, the WUPA wakes it up again
+    RC522.halt();
+    misses = 0;
 
-    Serial.println("Card detected:");
+    if (!cardPresent || memcmp(cardUid, RC522.serNum, UID_LENGTH) != 0) {
+      uint32_t detectMs = recordChange(now);
+      cardPresent = true;
+      memcpy(cardUid, RC522.serNum, UID_LENGTH);
 
-    for(i = 0; i <= 4; i++)
-    {
-      Serial.print(RC522.serNum[i],HEX);
-      address += String(RC522.serNum[i],HEX);
-      Serial.print(" ");
+      Serial.print("Card detected: ");
+      printUid(cardUid);
+      Serial.printlnf("(within %lums)", detectMs);
+      publishTag(cardUid);
     }
-    
-    Serial.println();
-    Serial.println(address);
-    Mesh.publish("nfc-tag", address);
-  }
-  else {
-      if (!RC522.isCard()) {
-          Serial.println("Card NOT detected");
-          if( !flag ) {
-              flag = true;
-              Mesh.publish("nfc-tag", "none");
-          }
-      }
-  }
-      
-  delay(1000);
+
+    lastAgreeMs = now;
+    return;
+  }
+
+  if (!cardPresent) {
+    lastAgreeMs = now;
+    return;
+  }
+
+  if (++misses >= MISSES_BEFORE_NONE) {
+    Serial.printlnf("Card NOT detected (within %lums)", recordChange(now));
+    cardPresent = false;
+    misses = 0;
+    lastAgreeMs = now;
+    publishTag(NULL);
+  }
+}
+
+// Fast right after a change or while a removal is being confirmed, doubling back to the idle rate otherwise
+uint32_t nextScanInterval(uint32_t now)
+{
+  if (now - lastChangeMs < SCAN_FAST_WINDOW_MS || misses > 0) {
+    return SCAN_FAST_MS;
+  }
+
+  return min(scanIntervalMs * 2, (uint32_t) SCAN_IDLE_MS);
+}
+
+void loop()
+{
+  uint32_t now = millis();
+
+  onScan(scanForCard(), now);
+
+  if (now - lastPublishMs >= REPUBLISH_MS) {
+    lastPublishMs = now;
+    publishTag(cardPresent ? cardUid : NULL);
+  }
+
+  if (now - lastStatsMs >= STATS_INTERVAL_MS) {
+    lastStatsMs = now;
+    Serial.printlnf("scans=%lu irq=%lu reads=%lu changes=%lu interval=%lums detectAvg=%lums detectMax=%lums",
+      scans, irqAnswers, cardReads, changes, scanIntervalMs, changes ? totalDetectMs / changes : 0, maxDetectMs);
+  }
+
+  scanIntervalMs = nextScanInterval(now);
+
+  // An empty reader at the idle rate doesn't need its field on between scans
+  if (!cardPresent && scanIntervalMs == SCAN_IDLE_MS) {
+    RC522.antennaOff();
+    fieldOn = false;
+  }
+
+  uint32_t elapsed = millis() - now;
+  if (elapsed < scanIntervalMs) {
+    delay(scanIntervalMs - elapsed);
+  }
 }
\ No newline at end of file
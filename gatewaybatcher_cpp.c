@@ -0,0 +1,228 @@
+/*
+ * GatewayBatcher.cpp - Change-only, batched publishing of game piece frames for the board gateway.
+ * Keeps the last known state of every piece, drops frames that don't change it and groups the rest
+ * into one publish per batch window to stay inside Particle's publish rate limit.
+ */
+
+#include <stdio.h>
+#include <string.h>
+#include "GatewayBatcher.h"
+
+GatewayBatcher::GatewayBatcher(uint32_t batchWindowMs, uint32_t minPublishIntervalMs, uint32_t heartbeatIntervalMs)
+{
+  _batchWindowMs = batchWindowMs;
+  _minPublishIntervalMs = minPublishIntervalMs;
+  _heartbeatIntervalMs = heartbeatIntervalMs;
+  _firstPendingMs = 0;
+  _lastPublishMs = 0;
+  _lastHeartbeatMs = 0;
+  _hasPending = false;
+  _hasPublished = false;
+  _batchOut = false;
+
+  received = 0;
+  suppressed = 0;
+  replaced = 0;
+  batched = 0;
+  batches = 0;
+  failed = 0;
+  invalid = 0;
+  tableFull = 0;
+
+  memset(_pieces, 0, sizeof(_pieces));
+}
+
+bool GatewayBatcher::onFrame(const char *frame, uint32_t nowMs)
+{
+  uint8_t decoded[GATEWAY_FRAME_SIZE];
+
+  if (frame == NULL || !decodeFrame(frame, decoded)) {
+    invalid++;
+    return false;
+  }
+
+  uint16_t pieceId = ((uint16_t) decoded[2] << 8) | decoded[3];
+  PieceState *piece = findPiece(pieceId);
+  if (piece == NULL) {
+    // Let the caller publish it as it is
+    tableFull++;
+    return false;
+  }
+
+  received++;
+
+  // Byte 1 is the flags, 4 the uid length and 5..11 the uid. Sequence and time change on every read.
+  uint8_t state[9];
+  state[0] = decoded[1];
+  memcpy(&state[1], &decoded[4], 8);
+
+  if (piece->used && memcmp(piece->state, state, sizeof(state)) == 0) {
+    suppressed++;
+    return true;
+  }
+
+  if (piece->pending) {
+    replaced++;
+  }
+
+  piece->used = true;
+  piece->pending = true;
+  // A newer frame than the one in the batch, so it stays pending whatever happens to the batch
+  piece->inBatch = false;
+  memcpy(piece->state, state, sizeof(state));
+  strncpy(piece->frame, frame, GATEWAY_FRAME_TEXT_LENGTH);
+  piece->frame[GATEWAY_FRAME_TEXT_LENGTH] = '\0';
+
+  if (!_hasPending) {
+    _hasPending = true;
+    _firstPendingMs = nowMs;
+  }
+
+  return true;
+}
+
+bool GatewayBatcher::pollBatch(uint32_t nowMs, char *out, size_t outLength)
+{
+  if (_batchOut || !_hasPending || nowMs - _firstPendingMs < _batchWindowMs) {
+    return false;
+  }
+
+  if (_hasPublished && nowMs - _lastPublishMs < _minPublishIntervalMs) {
+    return false;
+  }
+
+  size_t used = 0;
+  out[0] = '\0';
+
+  for (uint8_t i = 0; i < GATEWAY_MAX_PIECES; i++) {
+    PieceState *piece = &_pieces[i];
+    if (!piece->pending) {
+      continue;
+    }
+
+    // Frame plus a separator plus the terminator
+    size_t needed = GATEWAY_FRAME_TEXT_LENGTH + (used > 0 ? 1 : 0) + 1;
+    if (used + needed > outLength) {
+      continue;
+    }
+
+    if (used > 0) {
+      out[used++] = ',';
+    }
+    memcpy(&out[used], piece->frame, GATEWAY_FRAME_TEXT_LENGTH);
+    used += GATEWAY_FRAME_TEXT_LENGTH;
+    out[used] = '\0';
+
+    piece->inBatch = true;
+  }
+
+  if (used == 0) {
+    return false;
+  }
+
+  _batchOut = true;
+  return true;
+}
+
+void GatewayBatcher::onPublished(bool published, uint32_t nowMs)
+{
+  if (!_batchOut) {
+    return;
+  }
+  _batchOut = false;
+
+  bool hasLeftovers = false;
+  for (uint8_t i = 0; i < GATEWAY_MAX_PIECES; i++) {
+    PieceState *piece = &_pieces[i];
+    if (published && piece->inBatch) {
+      piece->pending = false;
+      batched++;
+    }
+    piece->inBatch = false;
+    hasLeftovers = hasLeftovers || piece->pending;
+  }
+
+  if (published) {
+    batches++;
+  } else {
+    failed++;
+  }
+
+  // A failed publish still counts against the rate limit
+  _hasPublished = true;
+  _lastPublishMs = nowMs;
+  _hasPending = hasLeftovers;
+  _firstPendingMs = nowMs;
+}
+
+bool GatewayBatcher::pollHeartbeat(uint32_t nowMs, char *out, size_t outLength)
+{
+  if (nowMs - _lastHeartbeatMs < _heartbeatIntervalMs) {
+    return false;
+  }
+
+  _lastHeartbeatMs = nowMs;
+  snprintf(out, outLength, "%u,%lu,%lu,%lu",
+    pieceCount(), (unsigned long) received, (unsigned long) suppressed, (unsigned long) batched);
+  return true;
+}
+
+uint8_t GatewayBatcher::pieceCount()
+{
+  uint8_t count = 0;
+  for (uint8_t i = 0; i < GATEWAY_MAX_PIECES; i++) {
+    if (_pieces[i].used) {
+      count++;
+    }
+  }
+  return count;
+}
+
+GatewayBatcher::PieceState *GatewayBatcher::findPiece(uint16_t pieceId)
+{
+  PieceState *empty = NULL;
+
+  for (uint8_t i = 0; i < GATEWAY_MAX_PIECES; i++) {
+    if (_pieces[i].used && _pieces[i].pieceId == pieceId) {
+      return &_pieces[i];
+    }
+    if (!_pieces[i].used && empty == NULL) {
+      empty = &_pieces[i];
+    }
+  }
+
+  if (empty != NULL) {
+    empty->pieceId = pieceId;
+  }
+  return empty;
+}
+
+bool GatewayBatcher::decodeFrame(const char *text, uint8_t *out)
+{
+  if (strlen(text) != GATEWAY_FRAME_TEXT_LENGTH) {
+    return false;
+  }
+
+  uint8_t o = 0;
+  for (uint8_t i = 0; i < GATEWAY_FRAME_TEXT_LENGTH; i += 4) {
+    uint32_t chunk = 0;
+    for (uint8_t j = 0; j < 4; j++) {
+      char c = text[i + j];
+      uint8_t value;
+      if (c >= 'A' && c <= 'Z') value = c - 'A';
+      else if (c >= 'a' && c <= 'z') value = c - 'a' + 26;
+      else if (c >= '0' && c <= '9') value = c - '0' + 52;
+      else if (c == '+') value = 62;
+      else if (c == '/') value = 63;
+      else return false;
+      chunk = (chunk << 6) | value;
+    }
+
+    out[o++] = (chunk >> 16) & 0xFF;
+    out[o++] = (chunk >> 8) & 0xFF;
+    out[o++] = chunk & 0xFF;
+  }
+
+  // Only version 1 frames are understood
+  return out[0] == 1;
+}
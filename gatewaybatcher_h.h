@@ -0,0 +1,69 @@
+/* GatewayBatcher.h - Change-only, batched publishing of game piece frames for the board gateway.
+ * Plain C++ with no Particle dependencies so the state and batching logic can be built and run off-device.
+ */
+#ifndef GatewayBatcher_h
+#define GatewayBatcher_h
+
+#include <stddef.h>
+#include <stdint.h>
+
+#define GATEWAY_MAX_PIECES        32
+#define GATEWAY_FRAME_SIZE        24   // Decoded TagFrame, see game_piece_particle_code.c
+#define GATEWAY_FRAME_TEXT_LENGTH 32   // Base64 TagFrame
+
+class GatewayBatcher
+{
+  public:
+    GatewayBatcher(uint32_t batchWindowMs, uint32_t minPublishIntervalMs, uint32_t heartbeatIntervalMs);
+
+    // Takes one base64 frame from a game piece. Returns false if it isn't a valid frame or there is no room
+    // left for its piece, in which case the caller has to publish it on its own.
+    bool onFrame(const char *frame, uint32_t nowMs);
+
+    // Fills out with the comma separated frames that changed and returns true once a batch is due.
+    // Every batch has to be followed by onPublished() with the result of publishing it.
+    bool pollBatch(uint32_t nowMs, char *out, size_t outLength);
+
+    // Settles the last batch. A failed one stays pending and goes out again on the next window.
+    void onPublished(bool published, uint32_t nowMs);
+
+    // Fills out with "<pieces>,<received>,<suppressed>,<batched>" and returns true once a heartbeat is due
+    bool pollHeartbeat(uint32_t nowMs, char *out, size_t outLength);
+
+    uint8_t pieceCount();
+
+    uint32_t received;     // Valid frames taken in
+    uint32_t suppressed;   // Frames dropped because nothing changed for their piece
+    uint32_t replaced;     // Pending frames overwritten by a newer one before they were published
+    uint32_t batched;      // Frames sent as part of a batch
+    uint32_t batches;      // Batches published
+    uint32_t failed;       // Batches whose publish failed and will be retried
+    uint32_t invalid;      // Payloads that weren't frames
+    uint32_t tableFull;    // Frames from pieces there was no room to track
+
+  private:
+    struct PieceState {
+      bool used;
+      bool pending;
+      bool inBatch;        // Its pending frame is in the batch waiting on onPublished()
+      uint16_t pieceId;
+      uint8_t state[9];    // Flags, uid length and uid, i.e. the part of a frame that says what is on the reader
+      char frame[GATEWAY_FRAME_TEXT_LENGTH + 1];
+    };
+
+    PieceState *findPiece(uint16_t pieceId);
+    static bool decodeFrame(const char *text, uint8_t *out);
+
+    PieceState _pieces[GATEWAY_MAX_PIECES];
+    uint32_t _batchWindowMs;
+    uint32_t _minPublishIntervalMs;
+    uint32_t _heartbeatIntervalMs;
+    uint32_t _firstPendingMs;
+    uint32_t _lastPublishMs;
+    uint32_t _lastHeartbeatMs;
+    bool _hasPending;
+    bool _hasPublished;
+    bool _batchOut;
+};
+
+#endif
@@ -0,0 +1,196 @@
+/*
+ * GatewayBatcherTest.cpp - Host side tests for GatewayBatcher, no Particle device needed:
+ *
+ *     g++ -Wall -Wextra -o GatewayBatcherTest GatewayBatcherTest.cpp GatewayBatcher.cpp && ./GatewayBatcherTest
+ *
+ * Exits with the number of failed checks.
+ */
+
+#include <stdio.h>
+#include <string.h>
+#include "GatewayBatcher.h"
+
+static int failures = 0;
+
+#define CHECK(condition) check((condition), #condition, __LINE__)
+
+static void check(bool condition, const char *text, int line)
+{
+  if (!condition) {
+    printf("line %d: %s\n", line, text);
+    failures++;
+  }
+}
+
+// Builds a base64 frame as the game piece does, with the uid given as one byte repeated
+static void makeFrame(char *out, uint16_t pieceId, uint8_t uidByte, uint32_t sequence)
+{
+  static const char alphabet[] = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+  uint8_t frame[GATEWAY_FRAME_SIZE];
+
+  memset(frame, 0, sizeof(frame));
+  frame[0] = 1;
+  frame[1] = uidByte ? 1 : 0;
+  frame[2] = pieceId >> 8;
+  frame[3] = pieceId & 0xFF;
+  frame[4] = uidByte ? 4 : 0;
+  memset(&frame[5], uidByte, uidByte ? 4 : 0);
+  frame[15] = sequence & 0xFF;
+
+  uint8_t o = 0;
+  for (uint8_t i = 0; i < GATEWAY_FRAME_SIZE; i += 3) {
+    uint32_t chunk = ((uint32_t) frame[i] << 16) | ((uint32_t) frame[i + 1] << 8) | frame[i + 2];
+    out[o++] = alphabet[(chunk >> 18) & 0x3F];
+    out[o++] = alphabet[(chunk >> 12) & 0x3F];
+    out[o++] = alphabet[(chunk >> 6) & 0x3F];
+    out[o++] = alphabet[chunk & 0x3F];
+  }
+  out[o] = '\0';
+}
+
+static void batchesChangesOnly()
+{
+  GatewayBatcher batcher(250, 1000, 60000);
+  char frame[GATEWAY_FRAME_TEXT_LENGTH + 1];
+  char payload[623];
+
+  makeFrame(frame, 1, 0xA1, 0);
+  CHECK(batcher.onFrame(frame, 0));
+  makeFrame(frame, 2, 0xB2, 0);
+  CHECK(batcher.onFrame(frame, 10));
+
+  CHECK(!batcher.pollBatch(249, payload, sizeof(payload)));
+  CHECK(batcher.pollBatch(250, payload, sizeof(payload)));
+  CHECK(strlen(payload) == 2 * GATEWAY_FRAME_TEXT_LENGTH + 1);
+  batcher.onPublished(true, 250);
+  CHECK(batcher.batched == 2);
+  CHECK(batcher.batches == 1);
+
+  // Same card again with a new sequence number
+  makeFrame(frame, 1, 0xA1, 1);
+  CHECK(batcher.onFrame(frame, 300));
+  CHECK(batcher.suppressed == 1);
+  CHECK(!batcher.pollBatch(5000, payload, sizeof(payload)));
+}
+
+static void keepsOnlyTheLatestFramePerPiece()
+{
+  GatewayBatcher batcher(250, 1000, 60000);
+  char frame[GATEWAY_FRAME_TEXT_LENGTH + 1];
+  char payload[623];
+
+  makeFrame(frame, 1, 0xA1, 0);
+  batcher.onFrame(frame, 0);
+  makeFrame(frame, 1, 0, 1);
+  batcher.onFrame(frame, 100);
+
+  CHECK(batcher.replaced == 1);
+  CHECK(batcher.pollBatch(250, payload, sizeof(payload)));
+  CHECK(strcmp(payload, frame) == 0);
+}
+
+static void retriesAFailedPublish()
+{
+  GatewayBatcher batcher(250, 1000, 60000);
+  char frame[GATEWAY_FRAME_TEXT_LENGTH + 1];
+  char payload[623];
+
+  makeFrame(frame, 1, 0xA1, 0);
+  batcher.onFrame(frame, 0);
+  CHECK(batcher.pollBatch(250, payload, sizeof(payload)));
+  batcher.onPublished(false, 250);
+  CHECK(batcher.failed == 1);
+  CHECK(batcher.batched == 0);
+
+  // Not before the rate limit allows another publish
+  CHECK(!batcher.pollBatch(1249, payload, sizeof(payload)));
+  CHECK(batcher.pollBatch(1250, payload, sizeof(payload)));
+  CHECK(strcmp(payload, frame) == 0);
+  batcher.onPublished(true, 1250);
+  CHECK(batcher.batched == 1);
+  CHECK(!batcher.pollBatch(5000, payload, sizeof(payload)));
+}
+
+static void keepsAFrameThatArrivedWhileItsBatchWasOut()
+{
+  GatewayBatcher batcher(250, 1000, 60000);
+  char frame[GATEWAY_FRAME_TEXT_LENGTH + 1];
+  char payload[623];
+
+  makeFrame(frame, 1, 0xA1, 0);
+  batcher.onFrame(frame, 0);
+  CHECK(batcher.pollBatch(250, payload, sizeof(payload)));
+
+  makeFrame(frame, 1, 0xC3, 1);
+  batcher.onFrame(frame, 260);
+  batcher.onPublished(true, 270);
+
+  CHECK(batcher.pollBatch(1270, payload, sizeof(payload)));
+  CHECK(strcmp(payload, frame) == 0);
+}
+
+static void splitsBatchesThatDontFit()
+{
+  GatewayBatcher batcher(250, 1000, 60000);
+  char frame[GATEWAY_FRAME_TEXT_LENGTH + 1];
+  char payload[2 * GATEWAY_FRAME_TEXT_LENGTH + 2];
+
+  for (uint16_t piece = 1; piece <= 3; piece++) {
+    makeFrame(frame, piece, 0xA0 + piece, 0);
+    batcher.onFrame(frame, 0);
+  }
+
+  CHECK(batcher.pollBatch(250, payload, sizeof(payload)));
+  CHECK(strlen(payload) == 2 * GATEWAY_FRAME_TEXT_LENGTH + 1);
+  batcher.onPublished(true, 250);
+
+  CHECK(batcher.pollBatch(1250, payload, sizeof(payload)));
+  CHECK(strcmp(payload, frame) == 0);
+  batcher.onPublished(true, 1250);
+  CHECK(batcher.batched == 3);
+}
+
+static void countsAFullTableApartFromInvalidFrames()
+{
+  GatewayBatcher batcher(250, 1000, 60000);
+  char frame[GATEWAY_FRAME_TEXT_LENGTH + 1];
+
+  for (uint16_t piece = 1; piece <= GATEWAY_MAX_PIECES; piece++) {
+    makeFrame(frame, piece, 0xA1, 0);
+    CHECK(batcher.onFrame(frame, 0));
+  }
+
+  makeFrame(frame, GATEWAY_MAX_PIECES + 1, 0xA1, 0);
+  CHECK(!batcher.onFrame(frame, 0));
+  CHECK(batcher.tableFull == 1);
+  CHECK(batcher.invalid == 0);
+  CHECK(batcher.pieceCount() == GATEWAY_MAX_PIECES);
+
+  CHECK(!batcher.onFrame("not a frame", 0));
+  CHECK(!batcher.onFrame("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!", 0));
+  CHECK(batcher.invalid == 2);
+}
+
+static void sendsHeartbeats()
+{
+  GatewayBatcher batcher(250, 1000, 60000);
+  char payload[64];
+
+  CHECK(!batcher.pollHeartbeat(59999, payload, sizeof(payload)));
+  CHECK(batcher.pollHeartbeat(60000, payload, sizeof(payload)));
+  CHECK(strcmp(payload, "0,0,0,0") == 0);
+}
+
+int main()
+{
+  batchesChangesOnly();
+  keepsOnlyTheLatestFramePerPiece();
+  retriesAFailedPublish();
+  keepsAFrameThatArrivedWhileItsBatchWasOut();
+  splitsBatchesThatDontFit();
+  countsAFullTableApartFromInvalidFrames();
+  sendsHeartbeats();
+
+  printf("%s, %d failed checks\n", failures ? "FAILED" : "OK", failures);
+  return failures;
+}
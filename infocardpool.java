@@ -0,0 +1,92 @@
+package ptrprograms.com.arboardgame
+
+import android.content.Context
+import android.os.SystemClock
+import android.util.Log
+import com.google.ar.sceneform.rendering.ViewRenderable
+import java.util.ArrayDeque
+import java.util.concurrent.CompletableFuture
+
+//Builds info card renderables ahead of time and hands them out so a body doesn't have to inflate
+//celestial_card_view every time it is shown. Must be used from the UI thread.
+class InfoCardPool(
+    val context: Context,
+    val capacity: Int = DEFAULT_CAPACITY
+) {
+
+    companion object {
+        const val DEFAULT_CAPACITY = 4
+    }
+
+    private val available = ArrayDeque<ViewRenderable>()
+
+    var hits = 0L
+        private set
+    var misses = 0L
+        private set
+    var created = 0L
+        private set
+    var totalCreationTimeMs = 0L
+        private set
+
+    init {
+        if( capacity < 0 ) {
+            throw IllegalArgumentException("capacity can't be negative")
+        }
+    }
+
+    //Fills the pool up to its capacity in the background
+    fun prewarm() {
+        for( i in available.size until capacity ) {
+            build().thenAccept { renderable -> release(renderable) }
+        }
+    }
+
+    fun acquire() : CompletableFuture<ViewRenderable> {
+        val renderable = available.pollFirst()
+        if( renderable != null ) {
+            hits++
+            return CompletableFuture.completedFuture(renderable)
+        }
+
+        misses++
+        return build()
+    }
+
+    //Hands a card back once its body is no longer shown. Cards past the pool's capacity are dropped.
+    fun release(renderable: ViewRenderable) {
+        if( available.size < capacity && !available.contains(renderable) ) {
+            available.addLast(renderable)
+        }
+    }
+
+    fun size() : Int {
+        return available.size
+    }
+
+    fun averageCreationTimeMs() : Long {
+        return if( created == 0L ) 0L else totalCreationTimeMs / created
+    }
+
+    private fun build() : CompletableFuture<ViewRenderable> {
+        val startTime = SystemClock.elapsedRealtime()
+        val stage = ViewRenderable.builder()
+            .setView(context, R.layout.celestial_card_view)
+            .build()
+
+        stage.handle { _, error ->
+            if( error != null ) {
+                Log.w("InfoCardPool", "Failed to build info card", error)
+            } else {
+                created++
+                totalCreationTimeMs += SystemClock.elapsedRealtime() - startTime
+            }
+        }
+
+        return stage
+    }
+
+    override fun toString() : String {
+        return "InfoCardPool(size=${size()}, hits=$hits, misses=$misses, avgCreationMs=${averageCreationTimeMs()})"
+    }
+}
@@ -0,0 +1,118 @@
+package ptrprograms.com.arboardgame
+
+import android.app.Activity
+import android.os.Handler
+import android.os.Looper
+import android.support.v4.text.PrecomputedTextCompat
+import android.support.v4.widget.TextViewCompat
+import android.view.Gravity
+import android.view.LayoutInflater
+import android.view.View
+import android.view.ViewGroup
+import android.view.ViewTreeObserver
+import android.widget.FrameLayout
+import android.widget.TextView
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+//Info panel laid over the scene instead of a bottom sheet dialog. The layout is inflated once and every body's
+//description is laid out in the background at startup, so opening the panel only swaps in finished text.
+//show() and hide() can be called from any thread.
+class InfoPanel(
+    val activity: Activity,
+    val catalog: PlanetCatalog,
+    private val executor: Executor
+) {
+
+    companion object {
+        //Records the time from startNs to the view's next draw in Metrics.infoOpen
+        fun recordOpenLatency(view: View, startNs: Long) {
+            val observer = view.viewTreeObserver
+            observer.addOnPreDrawListener(object : ViewTreeObserver.OnPreDrawListener {
+                override fun onPreDraw() : Boolean {
+                    Metrics.infoOpen.record(System.nanoTime() - startNs)
+                    if( view.viewTreeObserver.isAlive ) {
+                        view.viewTreeObserver.removeOnPreDrawListener(this)
+                    }
+                    return true
+                }
+            })
+        }
+    }
+
+    private val handler = Handler(Looper.getMainLooper())
+    private val panel: View
+    private val textView: TextView
+
+    //Filled in from the background, read on the UI thread
+    private val texts = AtomicReferenceArray<PrecomputedTextCompat>(catalog.size)
+
+    //Body currently shown, UNKNOWN while hidden
+    var planetId = PlanetCatalog.UNKNOWN
+        private set
+
+    init {
+        val content = activity.findViewById<ViewGroup>(android.R.id.content)
+        panel = LayoutInflater.from(activity).inflate(R.layout.info_layout, content, false)
+        textView = panel.findViewById(R.id.infoText)
+        panel.visibility = View.GONE
+        panel.setOnClickListener { hide() }
+
+        activity.addContentView(panel, FrameLayout.LayoutParams(
+            ViewGroup.LayoutParams.MATCH_PARENT,
+            ViewGroup.LayoutParams.WRAP_CONTENT,
+            Gravity.BOTTOM))
+    }
+
+    //Lays out every description with the text view's own settings. Must be called on the UI thread.
+    fun precompute() {
+        val params = TextViewCompat.getTextMetricsParams(textView)
+        executor.execute {
+            for( id in 0 until catalog.size ) {
+                texts.set(id, PrecomputedTextCompat.create(catalog[id].description, params))
+            }
+            Metrics.markStartup(Metrics.INFO_TEXT_READY)
+        }
+    }
+
+    fun show(planetId: Int) {
+        if( Looper.myLooper() != Looper.getMainLooper() ) {
+            handler.post { show(planetId) }
+            return
+        }
+
+        val startTime = System.nanoTime()
+        val planet = catalog.getOrNull(planetId) ?: return
+        this.planetId = planetId
+
+        val text = texts.get(planetId)
+        if( text == null ) {
+            //Not laid out yet, the text view does it this once
+            textView.text = planet.description
+        } else {
+            try {
+                TextViewCompat.setPrecomputedText(textView, text)
+            } catch( e: IllegalArgumentException ) {
+                //The text view's settings changed since the layout was done
+                textView.text = planet.description
+            }
+        }
+
+        panel.visibility = View.VISIBLE
+        recordOpenLatency(panel, startTime)
+    }
+
+    fun hide() {
+        if( Looper.myLooper() != Looper.getMainLooper() ) {
+            handler.post { hide() }
+            return
+        }
+
+        planetId = PlanetCatalog.UNKNOWN
+        panel.visibility = View.GONE
+    }
+
+    fun isShowing() : Boolean {
+        return planetId != PlanetCatalog.UNKNOWN
+    }
+}
@@ -0,0 +1,100 @@
+package ptrprograms.com.arboardgame
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+//Lock-free log-linear histogram in the style of HdrHistogram. Every power of two range is split into
+//2^subBucketBits linear buckets, so the relative error stays below 1 / 2^subBucketBits at any magnitude.
+//Recording is a couple of atomic increments and never allocates, so it can be used on the frame path.
+class LatencyHistogram(val subBucketBits: Int = DEFAULT_SUB_BUCKET_BITS) {
+
+    companion object {
+        const val DEFAULT_SUB_BUCKET_BITS = 4
+    }
+
+    private val subBucketCount = 1 shl subBucketBits
+    private val counts = AtomicLongArray((64 - subBucketBits) * subBucketCount)
+    private val totalCount = AtomicLong()
+    private val totalSum = AtomicLong()
+    private val maxValue = AtomicLong()
+
+    init {
+        if( subBucketBits < 1 || subBucketBits > 16 ) {
+            throw IllegalArgumentException("subBucketBits must be between 1 and 16")
+        }
+    }
+
+    fun record(value: Long) {
+        val clamped = if( value < 0 ) 0L else value
+        counts.incrementAndGet(indexOf(clamped))
+        totalCount.incrementAndGet()
+        totalSum.addAndGet(clamped)
+
+        var currentMax = maxValue.get()
+        while( clamped > currentMax && !maxValue.compareAndSet(currentMax, clamped) ) {
+            currentMax = maxValue.get()
+        }
+    }
+
+    fun count() : Long {
+        return totalCount.get()
+    }
+
+    fun max() : Long {
+        return maxValue.get()
+    }
+
+    fun mean() : Long {
+        val count = totalCount.get()
+        return if( count == 0L ) 0L else totalSum.get() / count
+    }
+
+    //Upper bound of the bucket holding the given percentile, e.g. 99.0 for p99
+    fun percentile(percentile: Double) : Long {
+        val count = totalCount.get()
+        if( count == 0L ) {
+            return 0L
+        }
+
+        val target = Math.max(1L, Math.ceil(percentile / 100.0 * count).toLong())
+        var seen = 0L
+        for( index in 0 until counts.length() ) {
+            seen += counts.get(index)
+            if( seen >= target ) {
+                return Math.min(highestValueAt(index), maxValue.get())
+            }
+        }
+
+        return maxValue.get()
+    }
+
+    fun reset() {
+        for( index in 0 until counts.length() ) {
+            counts.set(index, 0L)
+        }
+        totalCount.set(0L)
+        totalSum.set(0L)
+        maxValue.set(0L)
+    }
+
+    private fun indexOf(value: Long) : Int {
+        if( value < subBucketCount ) {
+            return value.toInt()
+        }
+
+        val shift = 63 - java.lang.Long.numberOfLeadingZeros(value) - subBucketBits
+        val subBucket = ((value ushr shift) and (subBucketCount - 1).toLong()).toInt()
+        return subBucketCount + shift * subBucketCount + subBucket
+    }
+
+    private fun highestValueAt(index: Int) : Long {
+        if( index < subBucketCount ) {
+            return index.toLong()
+        }
+
+        val shift = index / subBucketCount - 1
+        val subBucket = index % subBucketCount
+        val lowest = (subBucketCount + subBucket).toLong() shl shift
+        return lowest + (1L shl shift) - 1
+    }
+}
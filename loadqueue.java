@@ -0,0 +1,185 @@
+package ptrprograms.com.arboardgame
+
+import java.util.PriorityQueue
+
+//Decides which model loads run and in what order. Loads start highest priority first with at most maxInFlight
+//running at once, so one slow model can't hold back the rest. Failed loads are retried after a growing delay
+//and given up on after maxAttempts.
+class LoadQueue(
+    val maxInFlight: Int = DEFAULT_MAX_IN_FLIGHT,
+    val maxAttempts: Int = DEFAULT_MAX_ATTEMPTS,
+    val retryDelayMs: Long = DEFAULT_RETRY_DELAY_MS,
+    private val scheduler: (delayMs: Long, task: () -> Unit) -> Unit,
+    private val start: (id: Int, attempt: Int) -> Unit
+) {
+
+    companion object {
+        const val PRIORITY_PREFETCH = 0
+        //Shown by the board or orrery
+        const val PRIORITY_VISIBLE = 1
+        //The value on the game piece, which the user is about to tap for
+        const val PRIORITY_CURRENT = 2
+
+        const val DEFAULT_MAX_IN_FLIGHT = 2
+        const val DEFAULT_MAX_ATTEMPTS = 3
+        const val DEFAULT_RETRY_DELAY_MS = 500L
+    }
+
+    enum class State { QUEUED, LOADING, RETRY_WAIT }
+
+    private class Request(val id: Int, var priority: Int, var order: Long) {
+        var state = State.QUEUED
+        var attempts = 0
+    }
+
+    //Every load that hasn't finished or been given up on yet
+    private val requests = HashMap<Int, Request>()
+
+    private val queue = PriorityQueue<Request>(11, Comparator { a, b ->
+        if( a.priority != b.priority ) b.priority - a.priority else java.lang.Long.compare(a.order, b.order)
+    })
+
+    private var inFlight = 0
+    private var sequence = 0L
+
+    var started = 0L
+        private set
+    var retries = 0L
+        private set
+    var failures = 0L
+        private set
+    var completed = 0L
+        private set
+
+    init {
+        if( maxInFlight < 1 || maxAttempts < 1 ) {
+            throw IllegalArgumentException("maxInFlight and maxAttempts must be at least 1")
+        }
+    }
+
+    //Queues a load, or raises the priority of one that is still waiting. Returns false if it was already known.
+    fun enqueue(id: Int, priority: Int) : Boolean {
+        val isNew: Boolean
+        synchronized(this) {
+            val request = requests[id]
+            if( request == null ) {
+                val created = Request(id, priority, sequence++)
+                requests[id] = created
+                queue.add(created)
+                isNew = true
+            } else {
+                if( priority > request.priority ) {
+                    request.priority = priority
+                    if( queue.remove(request) ) {
+                        queue.add(request)
+                    }
+                }
+                isNew = false
+            }
+        }
+
+        pump()
+        return isNew
+    }
+
+    //Drops a load that hasn't started yet, e.g. because its cache entry was evicted
+    @Synchronized
+    fun cancel(id: Int) : Boolean {
+        val request = requests[id] ?: return false
+        if( request.state == State.LOADING ) {
+            return false
+        }
+
+        queue.remove(request)
+        requests.remove(id)
+        return true
+    }
+
+    fun onLoaded(id: Int) {
+        synchronized(this) {
+            val request = requests[id] ?: return
+            if( request.state == State.LOADING ) {
+                inFlight--
+            }
+            requests.remove(id)
+            completed++
+        }
+
+        pump()
+    }
+
+    //Returns true if the load will be retried, false if it has been given up on
+    fun onFailed(id: Int) : Boolean {
+        val retryDelay: Long
+        synchronized(this) {
+            val request = requests[id] ?: return false
+            if( request.state == State.LOADING ) {
+                inFlight--
+            }
+
+            if( request.attempts >= maxAttempts ) {
+                requests.remove(id)
+                failures++
+                retryDelay = -1L
+            } else {
+                request.state = State.RETRY_WAIT
+                retries++
+                retryDelay = retryDelayMs shl (request.attempts - 1)
+            }
+        }
+
+        if( retryDelay >= 0 ) {
+            scheduler(retryDelay) { requeue(id) }
+        }
+
+        pump()
+        return retryDelay >= 0
+    }
+
+    @Synchronized
+    fun stateOf(id: Int) : State? {
+        return requests[id]?.state
+    }
+
+    @Synchronized
+    fun pendingCount() : Int {
+        return requests.size
+    }
+
+    private fun requeue(id: Int) {
+        synchronized(this) {
+            val request = requests[id] ?: return
+            if( request.state != State.RETRY_WAIT ) {
+                return
+            }
+            request.state = State.QUEUED
+            request.order = sequence++
+            queue.add(request)
+        }
+
+        pump()
+    }
+
+    //Starts queued loads while there is room. start is called outside the lock since it may finish synchronously.
+    private fun pump() {
+        while( true ) {
+            val request: Request
+            synchronized(this) {
+                if( inFlight >= maxInFlight ) {
+                    return
+                }
+                request = queue.poll() ?: return
+                request.state = State.LOADING
+                request.attempts++
+                inFlight++
+                started++
+            }
+
+            start(request.id, request.attempts)
+        }
+    }
+
+    override fun toString() : String {
+        return "LoadQueue(started=$started, completed=$completed, retries=$retries, failures=$failures, pending=${pendingCount()})"
+    }
+}
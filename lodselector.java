@@ -0,0 +1,59 @@
+package ptrprograms.com.arboardgame
+
+//Picks a level of detail from how big a body appears on screen. Level 0 is the full model, each level after
+//it is coarser. A body has to cross a threshold by the hysteresis margin before its level changes, so one
+//sitting right on a threshold doesn't pop back and forth between models.
+class LodSelector(
+    //Screen sizes below which the next coarser level is used, largest first
+    val thresholds: FloatArray = floatArrayOf(DEFAULT_LOD1_SIZE, DEFAULT_LOD2_SIZE),
+    val hysteresis: Float = DEFAULT_HYSTERESIS
+) {
+
+    companion object {
+        //Fraction of the screen height covered by the body
+        const val DEFAULT_LOD1_SIZE = 0.15f
+        const val DEFAULT_LOD2_SIZE = 0.05f
+        const val DEFAULT_HYSTERESIS = 0.2f
+
+        //Fraction of the screen height covered by a sphere of the given radius. focalY is element [5] of the
+        //projection matrix, i.e. 1 / tan(verticalFov / 2).
+        fun projectedSize(radius: Float, distance: Float, focalY: Float) : Float {
+            if( distance <= radius ) {
+                return Float.MAX_VALUE
+            }
+            return radius * focalY / distance
+        }
+    }
+
+    val levelCount: Int
+        get() = thresholds.size + 1
+
+    init {
+        if( hysteresis < 0.0f || hysteresis >= 1.0f ) {
+            throw IllegalArgumentException("hysteresis must be in [0, 1)")
+        }
+        for( i in 1 until thresholds.size ) {
+            if( thresholds[i] >= thresholds[i - 1] ) {
+                throw IllegalArgumentException("thresholds must be strictly decreasing")
+            }
+        }
+    }
+
+    //Level to show given the one currently shown. maxLevel caps it for bodies with fewer variants.
+    fun select(current: Int, size: Float, maxLevel: Int = thresholds.size) : Int {
+        val cap = Math.min(Math.max(maxLevel, 0), thresholds.size)
+        var level = Math.min(Math.max(current, 0), cap)
+
+        //Finer once clearly above the threshold that got us here
+        while( level > 0 && size > thresholds[level - 1] * (1.0f + hysteresis) ) {
+            level--
+        }
+
+        //Coarser once clearly below the next one
+        while( level < cap && size < thresholds[level] * (1.0f - hysteresis) ) {
+            level++
+        }
+
+        return level
+    }
+}
@@ -0,0 +1,140 @@
+package ptrprograms.com.arboardgame
+
+import com.google.ar.sceneform.Node
+import com.google.ar.sceneform.Scene
+import com.google.ar.sceneform.collision.Box
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletionException
+
+//Swaps every registered planet node between its levels of detail in one pass per frame, based on how big it
+//appears on screen. A coarser or finer model is only swapped in once it has loaded, until then the current
+//one stays up.
+class LodSystem(
+    val renderableCache: RenderableCache,
+    val selector: LodSelector = LodSelector()
+) {
+
+    private class Entry(val node: Node, var planetId: Int) {
+        var level = 0
+        //Radius of the model before the node's scale, taken from its bounds
+        var radius = 0.0f
+        //Highest level this body can use, lowered when a variant fails to load
+        var maxLevel = 0
+    }
+
+    private val entries = ArrayList<Entry>()
+
+    var swaps = 0L
+        private set
+
+    fun register(node: Node, planetId: Int) {
+        for( entry in entries ) {
+            if( entry.node === node ) {
+                rebind(entry, planetId)
+                return
+            }
+        }
+
+        val entry = Entry(node, planetId)
+        rebind(entry, planetId)
+        entries.add(entry)
+    }
+
+    fun unregister(node: Node) {
+        val iterator = entries.iterator()
+        while( iterator.hasNext() ) {
+            if( iterator.next().node === node ) {
+                iterator.remove()
+                return
+            }
+        }
+    }
+
+    fun size() : Int {
+        return entries.size
+    }
+
+    //Number of registered bodies at each level, for the metrics overlay
+    fun levelCounts() : IntArray {
+        val counts = IntArray(selector.levelCount)
+        for( entry in entries ) {
+            counts[entry.level]++
+        }
+        return counts
+    }
+
+    //Called once per frame from the scene update listener
+    fun update(scene: Scene) {
+        if( entries.isEmpty() ) {
+            return
+        }
+
+        //Read straight from the world matrices like BillboardSystem does, worldPosition and worldScale allocate
+        val camera = scene.camera
+        val cameraMatrix = camera.worldModelMatrix.data
+        val cameraX = cameraMatrix[12]
+        val cameraY = cameraMatrix[13]
+        val cameraZ = cameraMatrix[14]
+        //1 / tan(verticalFov / 2)
+        val focalY = camera.projectionMatrix.data[5]
+
+        for( i in entries.indices ) {
+            val entry = entries[i]
+            if( !entry.node.isActive || entry.maxLevel == 0 ) {
+                continue
+            }
+
+            val matrix = entry.node.worldModelMatrix.data
+            val dx = matrix[12] - cameraX
+            val dy = matrix[13] - cameraY
+            val dz = matrix[14] - cameraZ
+            val distance = Math.sqrt((dx * dx + dy * dy + dz * dz).toDouble()).toFloat()
+
+            //Length of the first column, the node's x scale
+            val scale = Math.sqrt((matrix[0] * matrix[0] + matrix[1] * matrix[1] + matrix[2] * matrix[2]).toDouble()).toFloat()
+
+            val size = LodSelector.projectedSize(entry.radius * scale, distance, focalY)
+            val level = selector.select(entry.level, size, entry.maxLevel)
+            if( level != entry.level ) {
+                swapTo(entry, level)
+            }
+        }
+    }
+
+    private fun swapTo(entry: Entry, level: Int) {
+        if( !renderableCache.isReady(entry.planetId, level) ) {
+            //Start the load once and keep showing the current model until it is done
+            if( !renderableCache.contains(entry.planetId, level) ) {
+                val planetId = entry.planetId
+                renderableCache.get(planetId, LoadQueue.PRIORITY_VISIBLE, level)?.exceptionally { error ->
+                    //No such variant, stay at the levels that do load. A load the cache cancelled to make room
+                    //says nothing about the variant, it is asked for again on a later frame.
+                    val cause = if( error is CompletionException ) error.cause else error
+                    if( cause !is CancellationException && entry.planetId == planetId ) {
+                        entry.maxLevel = Math.min(entry.maxLevel, level - 1)
+                    }
+                    null
+                }
+            }
+            return
+        }
+
+        entry.node.renderable = renderableCache.getIfReady(entry.planetId, level) ?: return
+        entry.level = level
+        swaps++
+    }
+
+    //Starts a body over at full detail, e.g. after a node has been given a different planet
+    private fun rebind(entry: Entry, planetId: Int) {
+        entry.planetId = planetId
+        entry.level = 0
+        entry.maxLevel = Math.min(renderableCache.catalog.getOrNull(planetId)?.lodCount ?: 1, selector.levelCount) - 1
+
+        val bounds = entry.node.renderable?.collisionShape as? Box
+        entry.radius = if( bounds == null ) 0.5f else Math.max(bounds.extents.x, Math.max(bounds.extents.y, bounds.extents.z))
+    }
+
+    override fun toString() : String {
+        return "LodSystem(bodies=${entries.size}, swaps=$swaps, levels=${levelCounts().joinToString("/")})"
+    }
+}
@@ -1,35 +1,49 @@
 package ptrprograms.com.arboardgame
 
 import android.Manifest
+import android.arch.lifecycle.Lifecycle
 import android.content.pm.PackageManager
-import android.net.Uri
+import android.graphics.Color
 import android.support.v7.app.AppCompatActivity
 import android.os.Bundle
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
 import android.support.v4.app.ActivityCompat
 import android.support.v4.content.ContextCompat
 import android.util.Log
 import android.view.GestureDetector
 import android.view.MotionEvent
+import android.view.ViewGroup
+import android.widget.TextView
 import android.widget.Toast
 import com.google.ar.core.*
 import com.google.ar.core.exceptions.CameraNotAvailableException
 import com.google.ar.core.exceptions.UnavailableException
 import com.google.ar.sceneform.AnchorNode
 import com.google.ar.sceneform.ArSceneView
+import com.google.ar.sceneform.FrameTime
 import com.google.ar.sceneform.Node
 import com.google.ar.sceneform.math.Vector3
 import com.google.ar.sceneform.rendering.ModelRenderable
-import com.google.firebase.database.DataSnapshot
-import com.google.firebase.database.DatabaseError
 import com.google.firebase.database.FirebaseDatabase
-import com.google.firebase.database.ValueEventListener
-import java.util.concurrent.CompletableFuture
-import java.util.concurrent.ExecutionException
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 
 class MainActivity : AppCompatActivity(), InfoCallback {
 
     private val CAMERA_PERMISSION = 42
 
+    private val METRICS_OVERLAY_REFRESH_MS = 500L
+
+    //Shows frame and pipeline timings on screen
+    private val isMetricsOverlayEnabled by lazy { intent.getBooleanExtra(EXTRA_METRICS_OVERLAY, false) }
+
+    //Writes the timings to a CSV file in the app's external files dir whenever the app is paused
+    private val isMetricsDumpEnabled by lazy { intent.getBooleanExtra(EXTRA_METRICS_DUMP, false) }
+
     //Maps what we get from Firebase with an easier to work with value
     companion object {
         val SUN = "Sun"
@@ -41,10 +55,28 @@ class MainActivity : AppCompatActivity(), InfoCallback {
         val SATURN = "Saturn"
         val NEPTUNE = "Neptune"
         val URANUS = "Uranus"
+
+        //Launch options, e.g. adb shell am start -n ptrprograms.com.arboardgame/.MainActivity --ez $EXTRA_BOARD_MODE true
+        const val EXTRA_REUSE_MODE = "ptrprograms.com.arboardgame.REUSE_MODE"
+        const val EXTRA_AUTO_PLACE = "ptrprograms.com.arboardgame.AUTO_PLACE"
+        const val EXTRA_REPLAY_TRACE = "ptrprograms.com.arboardgame.REPLAY_TRACE"
+        const val EXTRA_BOARD_MODE = "ptrprograms.com.arboardgame.BOARD_MODE"
+        const val EXTRA_SHARED_ROLE = "ptrprograms.com.arboardgame.SHARED_ROLE"
+        const val EXTRA_ORRERY_MODE = "ptrprograms.com.arboardgame.ORRERY_MODE"
+        const val EXTRA_INFO_PANEL = "ptrprograms.com.arboardgame.INFO_PANEL"
+        const val EXTRA_LOD = "ptrprograms.com.arboardgame.LOD"
+        const val EXTRA_METRICS_OVERLAY = "ptrprograms.com.arboardgame.METRICS_OVERLAY"
+        const val EXTRA_METRICS_DUMP = "ptrprograms.com.arboardgame.METRICS_DUMP"
     }
 
-    //Item that we get back from Firebase
-    private lateinit var celestial: String
+    //Item that we get back from Firebase, or the last one seen before the app was closed. Null until either is known.
+    private var celestial: String? = null
+
+    //Catalog id of celestial, worked out once per update so taps don't have to match strings
+    private var celestialId = PlanetCatalog.UNKNOWN
+
+    //Size, tilt, spin and description of every body we can show
+    private lateinit var catalog: PlanetCatalog
 
     //Prevents stacking multiple instances of the same object
     private var hasPlacedObject = false
@@ -60,32 +92,146 @@ class MainActivity : AppCompatActivity(), InfoCallback {
     //Used to clear the base when a new value is available
     private var objectBase : Node? = null
 
-    //Renderable objects for our 3D models
-    private var sunRenderable: ModelRenderable? = null
-    private var mercuryRenderable: ModelRenderable? = null
-    private var venusRenderable: ModelRenderable? = null
-    private var earthRenderable: ModelRenderable? = null
-    private var marsRenderable: ModelRenderable? = null
-    private var jupiterRenderable: ModelRenderable? = null
-    private var saturnRenderable: ModelRenderable? = null
-    private var neptuneRenderable: ModelRenderable? = null
-    private var uranusRenderable: ModelRenderable? = null
+    //Anchor the current object is attached to, released when the object is taken down or placed again
+    private var placedAnchor : AnchorNode? = null
+
+    //Body currently on screen, kept around so reuse mode can rebind it
+    private var celestialBody : CelestialBody? = null
+
+    //Keeps the placed anchor and nodes when the planet changes and only swaps what is shown
+    private val isReuseMode by lazy { intent.getBooleanExtra(EXTRA_REUSE_MODE, false) }
+
+    //Time from a settled planet change to the new model being on screen in reuse mode
+    private var lastSwapLatencyMs = 0L
+
+    //Loads 3D models on demand and keeps the most recently used ones in memory
+    private lateinit var renderableCache: RenderableCache
+
+    //Warms the model most likely to be needed after the current one
+    private lateinit var prefetcher: PlanetPrefetcher
+
+    //Tap that came in before its model was ready, replayed once it is
+    private var pendingTap: MotionEvent? = null
+
+    private val uiHandler = Handler(Looper.getMainLooper())
+
+    //Tracked planes, indexed once per frame so taps don't need a fresh hit test
+    private val placementService = PlacementService()
+
+    //Places the body on the largest stable plane as soon as a new value arrives, no tap needed
+    private val isAutoPlaceEnabled by lazy { intent.getBooleanExtra(EXTRA_AUTO_PLACE, false) }
+
+    //Set when a new value is waiting to be auto placed
+    private var pendingAutoPlace = false
+
+    //Where tag updates come from, Firebase unless a trace is being replayed
+    private lateinit var dataSource: TagDataSource
+
+    //Trace in assets to replay instead of reading Firebase, used for load testing
+    private val replayTraceAsset: String? by lazy { intent.getStringExtra(EXTRA_REPLAY_TRACE) }
+
+    //How much faster than recorded the trace is replayed
+    private val REPLAY_SPEED = 1.0
+
+    //Last known board, so a launch can show something before the network catches up
+    private lateinit var boardState: BoardStateStore
+
+    //Board state writes and info panel text, kept off the UI thread
+    private val backgroundExecutor: ExecutorService = Executors.newSingleThreadExecutor()
+
+    //ARCore session setup, on its own thread so board state writes don't wait behind it
+    private val sessionExecutor: ExecutorService = Executors.newSingleThreadExecutor()
+
+    //Camera image size and ARCore features to trade for latency
+    private val SESSION_PROFILE = SessionProfile.BALANCED
+
+    private val sessionBootstrapper by lazy {
+        SessionBootstrapper(context = this, profile = SESSION_PROFILE,
+            cloudAnchors = isSharedSession() && useCloudAnchors, executor = sessionExecutor)
+    }
+
+    //When the scene view last resumed, cleared once it has tracked a frame
+    private var resumedAtNs = 0L
+
+    private val BOARD_STATE_FILE = "board_state.log"
+
+    //Debounces and coalesces the values coming from Firebase before they reach the scene
+    private lateinit var tagPipeline: TagEventPipeline
+
+    //Shows every game piece under piece/* instead of only piece 1
+    private val isBoardMode by lazy { intent.getBooleanExtra(EXTRA_BOARD_MODE, false) }
+
+    //Tracks the pieces on the board when isBoardMode is on
+    private lateinit var boardScene: BoardScene
+
+    //Shares one board between the phones at a table: the host places it and publishes its pieces, viewers
+    //follow along instead of placing their own. Needs isBoardMode. Passed as the role's name.
+    private val sharedRole by lazy {
+        val name = intent.getStringExtra(EXTRA_SHARED_ROLE)
+        SharedRole.values().firstOrNull { it.name == name } ?: SharedRole.NONE
+    }
+
+    private val SHARED_SESSION_ID = "table1"
+
+    //ARCore cloud anchors put the board in the same spot for everyone, the local stand-in needs no API key
+    private val useCloudAnchors = false
+
+    private var sessionChannel: SessionChannel? = null
+
+    private var sharedHost: SharedSessionHost? = null
 
-    //Flag for when the 3D models have finished loading
-    private var hasFinishedLoading = false
+    //Set once the AR session is ready
+    private var anchorBackend: AnchorBackend? = null
+
+    //Host anchor a viewer heard about before it could resolve it
+    private var pendingAnchorId: String? = null
+
+    //Shows the whole solar system orbiting the Sun instead of the body on the game piece
+    private val isOrreryMode by lazy { intent.getBooleanExtra(EXTRA_ORRERY_MODE, false) }
+
+    //Places and moves every body when isOrreryMode is on
+    private lateinit var orreryScene: OrreryScene
+
+    //Turns every info card towards the camera once per frame
+    private val billboardSystem = BillboardSystem()
+
+    //Info cards built ahead of time and reused between bodies
+    private lateinit var cardPool: InfoCardPool
+
+    //Swaps in coarser models for bodies that are small on screen. Off by default, it needs the lodAssets variants
+    //built into the app.
+    private val isLodEnabled by lazy { intent.getBooleanExtra(EXTRA_LOD, false) }
+
+    private val lodSelector = LodSelector()
+
+    private var lodSystem: LodSystem? = null
 
     private val infoFragment = InfoFragment()
 
+    //Shows descriptions in a panel inflated once over the scene instead of the bottom sheet
+    private val isInfoPanelMode by lazy { intent.getBooleanExtra(EXTRA_INFO_PANEL, false) }
+
+    private var infoPanel: InfoPanel? = null
+
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
+        Metrics.beginStartup()
         setContentView(R.layout.activity_main)
         arSceneView = findViewById(R.id.ar_scene_view)
 
-        initData()
         initRenderables()
+        initData()
         initGestures()
         initSceneView()
 
+        if( isInfoPanelMode ) {
+            initInfoPanel()
+        }
+
+        if( isMetricsOverlayEnabled ) {
+            initMetricsOverlay()
+        }
+
         requestCameraPermission()
     }
 
@@ -93,7 +239,13 @@ class MainActivity : AppCompatActivity(), InfoCallback {
         gestureDetector = GestureDetector(this,
             object: GestureDetector.SimpleOnGestureListener() {
                 override fun onSingleTapUp(e: MotionEvent?): Boolean {
-                    onSingleTap(e, celestial)
+                    if( isOrreryMode ) {
+                        onOrreryTap(e)
+                    } else if( isBoardMode ) {
+                        onBoardTap(e)
+                    } else {
+                        onSingleTap(e, celestialId)
+                    }
                     return super.onSingleTapUp(e)
                 }
 
@@ -103,7 +255,8 @@ class MainActivity : AppCompatActivity(), InfoCallback {
             })
 
         arSceneView.scene.setOnTouchListener { hitTestResult, motionEvent ->
-            if( !hasPlacedObject ) {
+            //In reuse mode a tap on empty space moves the object to a new spot
+            if( !hasPlacedObject || (isReuseMode && hitTestResult.node == null) ) {
                 return@setOnTouchListener gestureDetector.onTouchEvent(motionEvent)
             }
 
@@ -111,168 +264,571 @@ class MainActivity : AppCompatActivity(), InfoCallback {
         }
     }
 
-    private fun onSingleTap(tap: MotionEvent?, celestialKey: String) {
-        if( !hasFinishedLoading ) {
+    private fun onBoardTap(tap: MotionEvent?) {
+        //Viewers show the board wherever the host put it
+        if( sharedRole == SharedRole.VIEWER && isSharedSession() ) {
             return
         }
 
         val frame = arSceneView.arFrame
         if( frame != null ) {
-            if( !hasPlacedObject && tryPlacingObject(tap, frame, celestialKey))
+            if( !hasPlacedObject && tryPlacingBoard(tap, frame))
                 hasPlacedObject = true
         }
     }
 
-    private fun tryPlacingObject(tap: MotionEvent?, frame: Frame, celestialKey: String) : Boolean {
-        if( frame.camera.trackingState == TrackingState.TRACKING) {
-            for (hit in frame.hitTest(tap)) {
-                val trackable = hit.trackable
-                if (trackable is Plane && trackable.isPoseInPolygon(hit.hitPose)) {
-                    val anchor = hit.createAnchor()
-                    val anchorNode = AnchorNode(anchor)
-                    anchorNode.setParent(arSceneView.scene)
-                    objectBase = createCelestial(celestialKey)
-                    anchorNode.addChild(objectBase)
-                    return true
-                }
+    private fun onOrreryTap(tap: MotionEvent?) {
+        val frame = arSceneView.arFrame
+        if( frame != null ) {
+            if( !hasPlacedObject && tryPlacingOrrery(tap, frame))
+                hasPlacedObject = true
+        }
+    }
+
+    private fun onSingleTap(tap: MotionEvent?, celestialId: Int) {
+        //Only the model for the current value needs to be ready, not all of them.
+        //Hold on to the tap so the object appears as soon as it is.
+        if( getRenderable(celestialId) == null ) {
+            if( tap != null && catalog.contains(celestialId) ) {
+                pendingTap?.recycle()
+                pendingTap = MotionEvent.obtain(tap)
+            }
+            return
+        }
+
+        val frame = arSceneView.arFrame
+        if( frame != null ) {
+            if( (!hasPlacedObject || isReuseMode) && tryPlacingObject(tap, frame, celestialId))
+                hasPlacedObject = true
+        }
+    }
+
+    private fun tryPlacingObject(tap: MotionEvent?, frame: Frame, celestialId: Int) : Boolean {
+        val anchorNode = createAnchorNode(tap, frame) ?: return false
+        placeObject(anchorNode, celestialId)
+        return true
+    }
+
+    private fun placeObject(anchorNode: AnchorNode, celestialId: Int) {
+        releasePlacedObject()
+        placedAnchor = anchorNode
+        objectBase = createCelestial(celestialId)
+        anchorNode.addChild(objectBase)
+    }
+
+    //Puts the current body on the largest stable plane once both it and its model are ready
+    private fun checkAutoPlace() {
+        if( !pendingAutoPlace || hasPlacedObject || !renderableCache.isReady(celestialId) ) {
+            return
+        }
+
+        val anchor = placementService.anchorOnLargestPlane() ?: return
+        val anchorNode = AnchorNode(anchor)
+        anchorNode.setParent(arSceneView.scene)
+
+        pendingAutoPlace = false
+        placeObject(anchorNode, celestialId)
+        hasPlacedObject = true
+    }
+
+    //Takes the current object off the scene and gives its anchor back to ARCore
+    private fun releasePlacedObject() {
+        objectBase?.setParent(null)
+        objectBase = null
+        celestialBody = null
+
+        placedAnchor?.anchor?.detach()
+        placedAnchor?.setParent(null)
+        placedAnchor = null
+    }
+
+    //Reuse mode: swaps the model, name and spin of the body already on screen
+    private fun swapCelestial(celestialId: Int) {
+        val body = celestialBody ?: return
+        val startTime = SystemClock.elapsedRealtime()
+
+        val stage = renderableCache.get(celestialId)
+        if( stage == null ) {
+            //Nothing to show for this value, e.g. "none", so hide the body until a planet comes back
+            body.isEnabled = false
+            return
+        }
+
+        stage.thenAccept { renderable ->
+            //Another planet may have arrived while this one was loading
+            if( celestialBody !== body || this.celestialId != celestialId ) {
+                return@thenAccept
+            }
+
+            body.rebind(catalog[celestialId], renderable)
+            body.isEnabled = true
+
+            lastSwapLatencyMs = SystemClock.elapsedRealtime() - startTime
+            Log.d("MainActivity", "Swapped to ${catalog[celestialId].name} in ${lastSwapLatencyMs}ms, " +
+                    "${liveAnchorCount()} anchors, ${liveNodeCount()} nodes")
+        }
+    }
+
+    private fun liveAnchorCount() : Int {
+        return arSceneView.session?.allAnchors?.size ?: 0
+    }
+
+    private fun liveNodeCount() : Int {
+        var count = 0
+        arSceneView.scene.callOnHierarchy { count++ }
+        return count
+    }
+
+    private fun tryPlacingBoard(tap: MotionEvent?, frame: Frame) : Boolean {
+        val anchorNode = createAnchorNode(tap, frame) ?: return false
+        boardScene.place(anchorNode)
+        shareBoardAnchor(anchorNode)
+        return true
+    }
+
+    private fun isSharedSession() : Boolean {
+        return isBoardMode && sharedRole != SharedRole.NONE
+    }
+
+    //Host: lets viewers resolve the anchor the board was just placed on
+    private fun shareBoardAnchor(anchorNode: AnchorNode) {
+        val host = sharedHost ?: return
+        val backend = anchorBackend ?: return
+        val anchor = anchorNode.anchor ?: return
+
+        backend.host(anchor) { anchorId ->
+            if( anchorId == null ) {
+                Toast.makeText(this, "Couldn't share the board's position", Toast.LENGTH_SHORT).show()
+                return@host
+            }
+
+            host.setAnchor(anchorId)
+            host.publish(SceneClock.elapsedSeconds, SceneClock.timeScale)
+        }
+    }
+
+    //Viewer: places the board on the host's anchor once both it and the AR session are known
+    private fun resolveSharedAnchor() {
+        val backend = anchorBackend ?: return
+        val anchorId = pendingAnchorId ?: return
+        pendingAnchorId = null
+
+        backend.resolve(anchorId) { anchor ->
+            if( anchor == null ) {
+                Toast.makeText(this, "Couldn't find the host's board", Toast.LENGTH_SHORT).show()
+                return@resolve
             }
+
+            val anchorNode = AnchorNode(anchor)
+            anchorNode.setParent(arSceneView.scene)
+            boardScene.place(anchorNode)
+            hasPlacedObject = true
         }
+    }
 
-        return false
+    private fun tryPlacingOrrery(tap: MotionEvent?, frame: Frame) : Boolean {
+        val anchorNode = createAnchorNode(tap, frame) ?: return false
+        orreryScene.place(anchorNode)
+        return true
     }
 
-    private fun createCelestial(celestialKey: String) : Node {
+    //Answered from the plane index, which is kept current by the scene update listener
+    private fun createAnchorNode(tap: MotionEvent?, frame: Frame) : AnchorNode? {
+        if( tap == null || frame.camera.trackingState != TrackingState.TRACKING ) {
+            return null
+        }
+
+        val anchor = placementService.anchorForTap(tap, arSceneView.scene.camera) ?: return null
+        val anchorNode = AnchorNode(anchor)
+        anchorNode.setParent(arSceneView.scene)
+        return anchorNode
+    }
+
+    private fun createCelestial(celestialId: Int) : Node {
         val base = Node()
 
 
-        val renderable = getRenderable(celestialKey)
+        val renderable = getRenderable(celestialId)
 
         if( renderable != null ) {
             val celestialObject =
-                CelestialBody(context = this, celestialName = celestial, renderable = renderable, infoCallback = this)
+                CelestialBody(context = this, planet = catalog[celestialId], renderable = renderable, infoCallback = this,
+                    billboardSystem = billboardSystem, cardPool = cardPool, lodSystem = lodSystem)
             celestialObject.setParent(base)
             celestialObject.localPosition = Vector3(0.0f, 0.5f, 0.0f)
             celestialObject.localScale = Vector3(0.5f, 0.5f, 0.5f)
+            celestialBody = celestialObject
         }
 
         return base
     }
 
-    private fun getRenderable(celestialKey: String) : ModelRenderable? {
-        return when( celestialKey ) {
-            SUN -> sunRenderable
-            MERCURY -> mercuryRenderable
-            VENUS -> venusRenderable
-            EARTH -> earthRenderable
-            MARS -> marsRenderable
-            JUPITER -> jupiterRenderable
-            SATURN -> saturnRenderable
-            NEPTUNE -> neptuneRenderable
-            URANUS -> uranusRenderable
-            else -> null
-        }
+    private fun getRenderable(celestialId: Int) : ModelRenderable? {
+        return renderableCache.getIfReady(celestialId)
     }
 
     private fun initSceneView() {
         arSceneView
             .scene
             .addOnUpdateListener { frameTime ->
-                val frame = arSceneView.arFrame
+                val startTime = System.nanoTime()
+                Metrics.frameInterval.record((frameTime.deltaSeconds * 1000000000.0).toLong())
+
+                onSceneUpdate(frameTime)
+
+                Metrics.frameUpdate.record(System.nanoTime() - startTime)
+            }
+    }
+
+    //Replays a tap that was waiting on the current model
+    private fun onModelReady(id: Int) {
+        if( id != celestialId ) {
+            return
+        }
+
+        Metrics.markStartup(Metrics.FIRST_MODEL_READY)
+
+        val tap = pendingTap ?: return
+        pendingTap = null
+        onSingleTap(tap, celestialId)
+        tap.recycle()
+    }
+
+    private fun onModelFailed(id: Int) {
+        if( id == celestialId ) {
+            pendingTap?.recycle()
+            pendingTap = null
+            Toast.makeText(this, "Couldn't load ${catalog[id].name}", Toast.LENGTH_SHORT).show()
+        }
+    }
+
+    //Placeable once a plane is being tracked and, outside board and orrery mode, the current model is ready
+    private fun checkFirstPlaceable() {
+        if( Metrics.hasReached(Metrics.FIRST_PLACEABLE) ) {
+            return
+        }
+
+        if( !isBoardMode && !isOrreryMode && !renderableCache.isReady(celestialId) ) {
+            return
+        }
+
+        if( placementService.index.size() > 0 ) {
+            Metrics.markStartup(Metrics.FIRST_PLACEABLE)
+        }
+    }
 
-                if( frame == null )
-                    return@addOnUpdateListener
+    private fun onSceneUpdate(frameTime: FrameTime) {
+        //Drives the rotation of every planet in one place
+        SceneClock.tick(frameTime.deltaSeconds)
 
-                if( frame.camera.trackingState != TrackingState.TRACKING)
-                    return@addOnUpdateListener
+        if( isOrreryMode ) {
+            orreryScene.update(SceneClock.elapsedSeconds)
+        }
+
+        val frame = arSceneView.arFrame
 
+        if( frame == null )
+            return
+
+        Metrics.onTrackingState(frame.camera.trackingState.name)
+        anchorBackend?.update()
+        sharedHost?.tick(SceneClock.elapsedSeconds, SceneClock.timeScale)
+
+        if( frame.camera.trackingState != TrackingState.TRACKING)
+            return
+
+        if( resumedAtNs != 0L ) {
+            Metrics.timeToTracking.record(System.nanoTime() - resumedAtNs)
+            Metrics.markStartup(Metrics.FIRST_TRACKING)
+            resumedAtNs = 0L
+        }
+
+        placementService.update(frame)
+        checkFirstPlaceable()
+        if( isAutoPlaceEnabled ) {
+            checkAutoPlace()
+        }
+
+        val startTime = System.nanoTime()
+        billboardSystem.update(arSceneView.scene)
+        lodSystem?.update(arSceneView.scene)
+        Metrics.celestialUpdate.record(System.nanoTime() - startTime)
+    }
+
+    //Shows the metrics summary on top of the scene, refreshed twice a second
+    private fun initMetricsOverlay() {
+        val overlay = TextView(this)
+        overlay.setTextColor(Color.WHITE)
+        overlay.setBackgroundColor(0x80000000.toInt())
+        overlay.textSize = 10.0f
+        addContentView(overlay, ViewGroup.LayoutParams(
+            ViewGroup.LayoutParams.WRAP_CONTENT,
+            ViewGroup.LayoutParams.WRAP_CONTENT))
+
+        val handler = Handler(Looper.getMainLooper())
+        handler.post(object : Runnable {
+            override fun run() {
+                overlay.text = Metrics.summary()
+                if( !isFinishing ) {
+                    handler.postDelayed(this, METRICS_OVERLAY_REFRESH_MS)
+                }
             }
+        })
+    }
+
+    private fun dumpMetrics() {
+        val file = File(getExternalFilesDir(null), "metrics-${System.currentTimeMillis()}.csv")
+        try {
+            Metrics.dump(file)
+            Log.i("Metrics", "Wrote ${file.absolutePath}")
+        } catch( e: IOException ) {
+            Log.w("Metrics", "Failed to write ${file.absolutePath}", e)
+        }
     }
 
     private fun initData() {
-        val database = FirebaseDatabase.getInstance()
-        val myRef = database.getReference("piece/1/tag/planet")
-
-        myRef.addValueEventListener(object : ValueEventListener {
-            override fun onDataChange(dataSnapshot: DataSnapshot) {
-                celestial = dataSnapshot.getValue(String::class.java) ?: MERCURY
-                hasPlacedObject = false
-                if( infoFragment.isAdded ) {
-                    infoFragment.dismiss()
+        tagPipeline = TagEventPipeline(
+            clock = { SystemClock.uptimeMillis() },
+            scheduler = { delayMs, task -> uiHandler.postDelayed({ task() }, delayMs) },
+            deliver = { value -> onCelestialChanged(value) })
+
+        boardState = BoardStateStore(File(filesDir, BOARD_STATE_FILE), backgroundExecutor)
+        val restored = boardState.load()
+        Metrics.markStartup(Metrics.STATE_RESTORED)
+
+        dataSource = createDataSource(uiHandler)
+
+        if( isBoardMode ) {
+            initBoardData(restored)
+            return
+        }
+
+        //Show the last value right away, the live one replaces it once it arrives
+        val lastValue = restored["1"]
+        if( lastValue != null && catalog.contains(lastValue) ) {
+            onCelestialChanged(lastValue)
+        }
+
+        dataSource.observePiece("1") { reading -> onTagReading(reading) }
+    }
+
+    //Firebase normally, or a recorded trace from assets when replayTraceAsset is set
+    private fun createDataSource(uiHandler: Handler) : TagDataSource {
+        val traceAsset = replayTraceAsset ?: return FirebaseTagSource(FirebaseDatabase.getInstance(), catalog)
+
+        val trace = assets.open(traceAsset).bufferedReader().useLines { lines ->
+            ReplayTagSource.parse(lines) { uidKey ->
+                val planetId = catalog.uidTable.get(uidKey)
+                if( planetId == PlanetCatalog.UNKNOWN ) null else catalog[planetId].name
+            }
+        }
+        val replay = ReplayTagSource(trace, speed = REPLAY_SPEED,
+            scheduler = { delayMs, task -> uiHandler.postDelayed({ task() }, delayMs) })
+        replay.start()
+        return replay
+    }
+
+    private fun onTagReading(reading: TagReading) {
+        Metrics.markStartup(Metrics.FIRST_NETWORK_VALUE)
+        if( reading.timestampMs > 0 ) {
+            Metrics.tagEndToEnd.record((System.currentTimeMillis() - reading.timestampMs) * 1000000)
+        }
+
+        tagPipeline.offer(reading.planet ?: MERCURY)
+    }
+
+    //One listener on the parent node covers every piece, the board model works out what changed
+    private fun initBoardData(restored: Map<String, String>) {
+        boardScene = BoardScene(context = this, renderableCache = renderableCache, infoCallback = this,
+            billboardSystem = billboardSystem, cardPool = cardPool, lodSystem = lodSystem)
+
+        //Pieces from the last run stand in until the first live snapshot replaces them
+        if( !restored.isEmpty() ) {
+            boardScene.update(restored)
+            Metrics.markStartup(Metrics.FIRST_VALUE)
+        }
+
+        if( isSharedSession() ) {
+            sessionChannel = FirebaseSessionChannel(FirebaseDatabase.getInstance(), SHARED_SESSION_ID)
+        }
+
+        if( sharedRole == SharedRole.VIEWER && isSharedSession() ) {
+            followSharedBoard()
+            return
+        }
+
+        if( sharedRole == SharedRole.HOST && isSharedSession() ) {
+            sharedHost = SharedSessionHost(sessionChannel!!, { System.currentTimeMillis() })
+            publishBoard(restored)
+        }
+
+        dataSource.observeBoard { readings ->
+            Metrics.markStartup(Metrics.FIRST_NETWORK_VALUE)
+
+            val snapshot = HashMap<String, String?>()
+            for( (pieceId, reading) in readings ) {
+                snapshot[pieceId] = reading.planet
+            }
+
+            val diff = boardScene.update(snapshot)
+            if( !diff.isEmpty() ) {
+                Log.d("BoardScene", "Applied ${diff.size()} changes in ${boardScene.lastApplyTimeNs / 1000}us")
+                Metrics.markStartup(Metrics.FIRST_VALUE)
+                saveBoardDiff(diff, snapshot)
+                publishBoard(snapshot)
+            }
+        }
+    }
+
+    //Host: sends the board by catalog id. Pieces without a numeric id or a known planet count as empty.
+    private fun publishBoard(snapshot: Map<String, String?>) {
+        val host = sharedHost ?: return
+
+        val pieces = HashMap<Int, Int>()
+        for( (pieceId, planet) in snapshot ) {
+            val id = pieceId.toIntOrNull() ?: continue
+            val planetId = if( planet == null ) PlanetCatalog.UNKNOWN else catalog.idOf(planet)
+            if( id in 0..0xffff && planetId != PlanetCatalog.UNKNOWN ) {
+                pieces[id] = planetId
+            }
+        }
+
+        if( pieces.size > SessionDelta.MAX_PIECES ) {
+            Log.w("MainActivity", "Not sharing a board of ${pieces.size} pieces, the limit is ${SessionDelta.MAX_PIECES}")
+            return
+        }
+
+        host.updatePieces(pieces)
+        host.publish(SceneClock.elapsedSeconds, SceneClock.timeScale)
+    }
+
+    //Viewer: the board, its anchor and the scene clock all come from the host instead of the pieces in Firebase
+    private fun followSharedBoard() {
+        val viewer = SharedSessionViewer({ System.currentTimeMillis() }, object : SharedSessionViewer.Listener {
+            override fun onAnchor(anchorId: String) {
+                pendingAnchorId = anchorId
+                resolveSharedAnchor()
+            }
+
+            override fun onPieces(pieces: Map<Int, Int>) {
+                Metrics.markStartup(Metrics.FIRST_NETWORK_VALUE)
+
+                val snapshot = HashMap<String, String?>()
+                for( (pieceId, planetId) in pieces ) {
+                    snapshot[pieceId.toString()] = catalog.getOrNull(planetId)?.name
                 }
-                this@MainActivity.runOnUiThread { objectBase?.setParent(null) }
 
+                val diff = boardScene.update(snapshot)
+                if( !diff.isEmpty() ) {
+                    Metrics.markStartup(Metrics.FIRST_VALUE)
+                    saveBoardDiff(diff, snapshot)
+                }
             }
 
-            override fun onCancelled(error: DatabaseError) {
-                Log.w("TEST", "Failed to read value.", error.toException())
+            override fun onClock(sceneSeconds: Double, timeScale: Float) {
+                SceneClock.sync(sceneSeconds, timeScale)
             }
-        })
+        }, Metrics.sharedSessionDelay)
+
+        sessionChannel?.subscribe { message -> viewer.onMessage(message) }
     }
 
-    private fun initRenderables() {
-        val sunStage =
-            ModelRenderable.builder().setSource(this,
-                Uri.parse("Sol.sfb")).build()
-
-        val mercuryStage =
-            ModelRenderable.builder().setSource(this,
-                Uri.parse("Mercury.sfb")).build()
-
-        val venusStage =
-            ModelRenderable.builder().setSource(this,
-                Uri.parse("Venus.sfb")).build()
-
-        val earthStage =
-            ModelRenderable.builder().setSource(this,
-                Uri.parse("Earth.sfb")).build()
-
-        val marsStage =
-            ModelRenderable.builder().setSource(this,
-                Uri.parse("Mars.sfb")).build()
-
-        val jupiterStage =
-            ModelRenderable.builder().setSource(this,
-                Uri.parse("Jupiter.sfb")).build()
-
-        val saturnStage =
-            ModelRenderable.builder().setSource(this,
-                Uri.parse("Saturn.sfb")).build()
-
-        val neptuneStage =
-            ModelRenderable.builder().setSource(this,
-                Uri.parse("Neptune.sfb")).build()
-
-        val uranusStage =
-            ModelRenderable.builder().setSource(this,
-                Uri.parse("Uranus.sfb")).build()
-
-        CompletableFuture.allOf(
-            sunStage,
-            mercuryStage,
-            venusStage,
-            earthStage,
-            marsStage,
-            jupiterStage,
-            saturnStage,
-            neptuneStage,
-            uranusStage).handle { t, u ->
-            try {
-                sunRenderable = sunStage.get()
-                mercuryRenderable = mercuryStage.get()
-                venusRenderable = venusStage.get()
-                earthRenderable = earthStage.get()
-                marsRenderable = marsStage.get()
-                jupiterRenderable = jupiterStage.get()
-                saturnRenderable = saturnStage.get()
-                neptuneRenderable = neptuneStage.get()
-                uranusRenderable = uranusStage.get()
+    private fun saveBoardDiff(diff: BoardModel.Diff, snapshot: Map<String, String?>) {
+        for( pieceId in diff.added ) {
+            saveState(pieceId, snapshot[pieceId])
+        }
+        for( pieceId in diff.changed ) {
+            saveState(pieceId, snapshot[pieceId])
+        }
+        for( pieceId in diff.removed ) {
+            saveState(pieceId, null)
+        }
+    }
 
-                hasFinishedLoading = true
-            } catch(e: InterruptedException) {
+    //Only bodies the catalog knows are kept, anything else is stored as the piece being empty
+    private fun saveState(pieceId: String, planet: String?) {
+        val value = if( planet != null && catalog.contains(planet) ) planet else TagEventPipeline.NONE
+        boardState.put(pieceId, value)
+    }
 
-            } catch(e: ExecutionException) {
+    //Runs on the UI thread once a new value has settled
+    private fun onCelestialChanged(value: String) {
+        //The live value matching the restored one shouldn't take down what is already on screen
+        if( value == celestial ) {
+            return
+        }
+
+        celestial = value
+        celestialId = catalog.idOf(value)
+        Metrics.markStartup(Metrics.FIRST_VALUE)
+        saveState("1", value)
+        if( celestialId != PlanetCatalog.UNKNOWN ) {
+            //Start loading the new model once the value has settled, so it is likely ready by the time the user
+            //taps and a flapping reader doesn't queue loads for values that never show
+            renderableCache.get(celestialId)
+            prefetcher.onValue(value)
+        }
+
+        //The orrery shows every body whatever is on the piece, so there is nothing to take down
+        if( isOrreryMode ) {
+            return
+        }
+
+        dismissInfo()
+
+        //A tap still waiting on the old model shouldn't place the new one
+        pendingTap?.recycle()
+        pendingTap = null
+
+        if( isReuseMode && celestialBody != null ) {
+            swapCelestial(celestialId)
+            return
+        }
 
+        hasPlacedObject = false
+        releasePlacedObject()
+        pendingAutoPlace = celestialId != PlanetCatalog.UNKNOWN
+    }
+
+    private fun initRenderables() {
+        catalog = PlanetCatalog.getInstance(this)
+        Metrics.markStartup(Metrics.CATALOG_LOADED)
+
+        cardPool = InfoCardPool(context = this)
+        cardPool.prewarm()
+
+        val scheduler: (Long, () -> Unit) -> Unit = { delayMs, task -> uiHandler.postDelayed({ task() }, delayMs) }
+
+        //A board or orrery can show every planet at once, so keep them all around in those modes,
+        //along with their coarser variants. Otherwise there is room for the model on screen, its variants
+        //and the prefetches.
+        val levels = if( isLodEnabled ) lodSelector.levelCount else 1
+        val maxEntries = if( isBoardMode || isOrreryMode )
+            Math.max(1, catalog.size * levels)
+        else
+            Math.max(RenderableCache.DEFAULT_MAX_ENTRIES, levels + PlanetPrefetcher.DEFAULT_MAX_PREFETCHES)
+        renderableCache = RenderableCache(context = this, catalog = catalog, maxEntries = maxEntries, scheduler = scheduler)
+
+        renderableCache.addListener(object : RenderableCache.Listener {
+            override fun onReady(key: Int) {
+                onModelReady(key)
             }
+
+            override fun onFailed(key: Int, error: Throwable) {
+                onModelFailed(key)
+            }
+        })
+
+        if( isLodEnabled ) {
+            lodSystem = LodSystem(renderableCache, lodSelector)
+        }
+
+        orreryScene = OrreryScene(context = this, renderableCache = renderableCache, infoCallback = this,
+            billboardSystem = billboardSystem, cardPool = cardPool, lodSystem = lodSystem)
+
+        //Leave room in the cache for the model currently on screen and its variants
+        prefetcher = PlanetPrefetcher(maxPrefetches = Math.max(0, renderableCache.maxEntries - levels)) { celestialKey ->
+            renderableCache.get(celestialKey, LoadQueue.PRIORITY_PREFETCH)
         }
     }
 
@@ -308,61 +864,149 @@ class MainActivity : AppCompatActivity(), InfoCallback {
 
         if (arSceneView.session == null) {
             try {
-                val session = createArSession(installRequested)
-                if (session == null) {
+                if (!prepareArSession(installRequested)) {
                     installRequested = hasCameraPermission()
-                    return
-                } else {
-                    arSceneView.setupSession(session)
                 }
             } catch (e: UnavailableException) {
                 Toast.makeText(this, "Exception occurred.", Toast.LENGTH_LONG).show()
                 finish()
             }
 
+            //The scene view is resumed once the session is ready
+            return
         }
 
-        try {
-            arSceneView.resume()
-        } catch (ex: CameraNotAvailableException) {
+        resumeSceneView()
+    }
+
+    //Checks ARCore is installed and has the session built in the background. False if it can't start yet.
+    private fun prepareArSession(installRequested: Boolean) : Boolean {
+        if( !hasCameraPermission()) {
+            return false
+        }
+
+        when( ArCoreApk.getInstance().requestInstall(this, !installRequested)) {
+            ArCoreApk.InstallStatus.INSTALL_REQUESTED -> return false
+            ArCoreApk.InstallStatus.INSTALLED -> {}
+        }
+
+        sessionBootstrapper.prepare().handle { session, error ->
+            uiHandler.post { onArSessionReady(session, error) }
+        }
+        return true
+    }
+
+    private fun onArSessionReady(session: Session?, error: Throwable?) {
+        if( error != null || session == null ) {
+            Log.w("MainActivity", "Failed to create the AR session", error)
+            sessionBootstrapper.reset()
+            Toast.makeText(this, "Exception occurred.", Toast.LENGTH_LONG).show()
             finish()
             return
         }
-    }
 
-    private fun createArSession(installRequested: Boolean) : Session? {
-        var session: Session? = null
-        if( hasCameraPermission()) {
-            when( ArCoreApk.getInstance().requestInstall(this, !installRequested)) {
-                ArCoreApk.InstallStatus.INSTALL_REQUESTED -> return null
-                ArCoreApk.InstallStatus.INSTALLED -> {}
-            }
+        //Every resume while the session was being built asked to hear about it
+        val current = arSceneView.session
+        if( current === session ) {
+            return
+        }
 
-            session = Session(this)
-            val config = Config(session)
-            config.updateMode = Config.UpdateMode.LATEST_CAMERA_IMAGE
-            session.configure(config)
+        //Nothing will use it, close it rather than leave the camera and its native memory held
+        if( current != null || isDestroyed ) {
+            session.close()
+            return
         }
 
-        return session
+        arSceneView.setupSession(session)
+        arSceneView.isLightEstimationEnabled = SESSION_PROFILE.lightEstimation
+        Metrics.markStartup(Metrics.SESSION_READY)
+
+        if( isSharedSession() ) {
+            anchorBackend = if( useCloudAnchors ) CloudAnchorBackend(session) else LocalAnchorBackend(session)
+            resolveSharedAnchor()
+        }
+
+        if( lifecycle.currentState.isAtLeast(Lifecycle.State.RESUMED) ) {
+            resumeSceneView()
+        }
+    }
+
+    private fun resumeSceneView() {
+        try {
+            arSceneView.resume()
+            resumedAtNs = System.nanoTime()
+        } catch (ex: CameraNotAvailableException) {
+            finish()
+        }
     }
 
     override fun onPause() {
         super.onPause()
         arSceneView.pause()
+
+        if( isMetricsDumpEnabled ) {
+            dumpMetrics()
+        }
     }
 
     override fun onDestroy() {
         super.onDestroy()
+        dataSource.close()
+        sessionChannel?.close()
+        backgroundExecutor.shutdown()
+        sessionExecutor.shutdown()
+        pendingTap?.recycle()
+        pendingTap = null
         arSceneView.destroy()
     }
 
-    override fun showInfo() {
-        infoFragment.planet = celestial
+    private fun initInfoPanel() {
+        val panel = InfoPanel(activity = this, catalog = catalog, executor = backgroundExecutor)
+        panel.precompute()
+        infoPanel = panel
+    }
+
+    override fun showInfo(planetId: Int) {
+        val panel = infoPanel
+        if( panel != null ) {
+            panel.show(planetId)
+            return
+        }
+
+        if( Looper.myLooper() != Looper.getMainLooper() ) {
+            uiHandler.post { showInfo(planetId) }
+            return
+        }
+
+        //A tap on another body while the sheet is up switches it over instead of being dropped
+        if( infoFragment.isAdded ) {
+            infoFragment.showPlanet(planetId)
+            return
+        }
+        infoFragment.planetId = planetId
+        infoFragment.openStartNs = System.nanoTime()
         infoFragment.show(supportFragmentManager, "infoFragment")
     }
+
+    //Safe to call from any thread
+    private fun dismissInfo() {
+        val panel = infoPanel
+        if( panel != null ) {
+            panel.hide()
+            return
+        }
+
+        if( Looper.myLooper() != Looper.getMainLooper() ) {
+            uiHandler.post { dismissInfo() }
+            return
+        }
+
+        if( infoFragment.isAdded ) {
+            infoFragment.dismiss()
+        }
+    }
 }
 
 interface InfoCallback {
-    fun showInfo()
+    fun showInfo(planetId: Int)
 }
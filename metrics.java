@@ -0,0 +1,156 @@
+package ptrprograms.com.arboardgame
+
+import java.io.File
+import java.util.concurrent.atomic.AtomicLong
+
+//App wide timing histograms, all in nanoseconds. Safe to record from any thread.
+object Metrics {
+
+    //Startup milestones
+    const val CATALOG_LOADED = "catalogLoaded"
+    const val STATE_RESTORED = "stateRestored"
+    //A value to show is known, restored or live
+    const val FIRST_VALUE = "firstValue"
+    const val FIRST_NETWORK_VALUE = "firstNetworkValue"
+    const val FIRST_MODEL_READY = "firstModelReady"
+    const val FIRST_PLACEABLE = "firstPlaceable"
+    const val SESSION_READY = "sessionReady"
+    const val FIRST_TRACKING = "firstTracking"
+    const val INFO_TEXT_READY = "infoTextReady"
+
+    //Time between frames as reported by the scene
+    val frameInterval = LatencyHistogram()
+
+    //Time spent in our scene update listener
+    val frameUpdate = LatencyHistogram()
+
+    //Turning every info card and picking every body's level of detail, once per frame
+    val celestialUpdate = LatencyHistogram()
+    val rotatingUpdate = LatencyHistogram()
+
+    //From the game piece reading a tag to the value reaching the app
+    val tagEndToEnd = LatencyHistogram()
+
+    val renderableLoad = LatencyHistogram()
+
+    //From a tap on a body to its description being drawn
+    val infoOpen = LatencyHistogram()
+
+    //From the scene view resuming to its first tracking frame, once per resume
+    val timeToTracking = LatencyHistogram()
+
+    //Keeping the plane index up to date, once per frame
+    val planeIndexUpdate = LatencyHistogram()
+
+    //Answering a tap from the plane index
+    val placementQuery = LatencyHistogram()
+
+    //From the host of a shared session sending a message to this viewer applying it. Includes any clock
+    //difference between the two phones, so compare runs rather than trusting the absolute value.
+    val sharedSessionDelay = LatencyHistogram()
+
+    val trackingTransitions = AtomicLong()
+
+    //Set on every frame so the dump shows where tracking ended up
+    @Volatile
+    var trackingState = "NONE"
+
+    //Cold start milestones in nanoseconds since beginStartup(), each recorded the first time it is reached
+    private val startupMarks = LinkedHashMap<String, Long>()
+
+    @Volatile
+    private var startupBeginNs = 0L
+
+    private val histograms = linkedMapOf(
+        "frameInterval" to frameInterval,
+        "frameUpdate" to frameUpdate,
+        "celestialUpdate" to celestialUpdate,
+        "rotatingUpdate" to rotatingUpdate,
+        "tagEndToEnd" to tagEndToEnd,
+        "renderableLoad" to renderableLoad,
+        "timeToTracking" to timeToTracking,
+        "infoOpen" to infoOpen,
+        "planeIndexUpdate" to planeIndexUpdate,
+        "placementQuery" to placementQuery,
+        "sharedSessionDelay" to sharedSessionDelay)
+
+    fun onTrackingState(state: String) {
+        if( state != trackingState ) {
+            trackingState = state
+            trackingTransitions.incrementAndGet()
+        }
+    }
+
+    fun beginStartup(nowNs: Long = System.nanoTime()) {
+        synchronized(startupMarks) {
+            startupMarks.clear()
+            startupBeginNs = nowNs
+        }
+    }
+
+    //Returns false if the milestone was already reached or beginStartup() hasn't been called
+    fun markStartup(milestone: String, nowNs: Long = System.nanoTime()) : Boolean {
+        synchronized(startupMarks) {
+            if( startupBeginNs == 0L || startupMarks.containsKey(milestone) ) {
+                return false
+            }
+            startupMarks[milestone] = nowNs - startupBeginNs
+            return true
+        }
+    }
+
+    fun hasReached(milestone: String) : Boolean {
+        synchronized(startupMarks) {
+            return startupMarks.containsKey(milestone)
+        }
+    }
+
+    fun summary() : String {
+        val builder = StringBuilder()
+        for( (name, histogram) in histograms ) {
+            builder.append(name)
+                .append(": n=").append(histogram.count())
+                .append(" p50=").append(toMillis(histogram.percentile(50.0)))
+                .append(" p99=").append(toMillis(histogram.percentile(99.0)))
+                .append(" max=").append(toMillis(histogram.max()))
+                .append("ms\n")
+        }
+        synchronized(startupMarks) {
+            for( (milestone, nanos) in startupMarks ) {
+                builder.append(milestone).append(": ").append(toMillis(nanos)).append("ms\n")
+            }
+        }
+        builder.append("tracking: ").append(trackingState)
+            .append(" transitions=").append(trackingTransitions.get())
+        return builder.toString()
+    }
+
+    //Writes every histogram's percentiles as CSV so runs from different builds can be compared
+    fun dump(file: File) {
+        file.bufferedWriter().use { writer ->
+            writer.write("metric,count,mean_ns,p50_ns,p90_ns,p99_ns,p999_ns,max_ns\n")
+            for( (name, histogram) in histograms ) {
+                writer.write("$name,${histogram.count()},${histogram.mean()},${histogram.percentile(50.0)}," +
+                        "${histogram.percentile(90.0)},${histogram.percentile(99.0)},${histogram.percentile(99.9)}," +
+                        "${histogram.max()}\n")
+            }
+            synchronized(startupMarks) {
+                for( (milestone, nanos) in startupMarks ) {
+                    writer.write("startup.$milestone,1,$nanos,$nanos,$nanos,$nanos,$nanos,$nanos\n")
+                }
+            }
+            writer.write("trackingTransitions,${trackingTransitions.get()},,,,,,\n")
+        }
+    }
+
+    fun reset() {
+        for( histogram in histograms.values ) {
+            histogram.reset()
+        }
+        trackingTransitions.set(0L)
+    }
+
+    private fun toMillis(nanos: Long) : String {
+        return String.format("%.2f", nanos / 1000000.0)
+    }
+}
@@ -96,4 +96,22 @@ sceneform.asset('sampledata/models/Neptune/Neptune.gltf',
 sceneform.asset('sampledata/models/Uranus/Uranus.gltf',
         'default',
         'sampledata/models/Uranus/Uranus.sfa',
-        'src/main/assets/Uranus')
\ No newline at end of file
+        'src/main/assets/Uranus')
+
+// Coarser variants shown when a body is small on screen, see LodSelector. Each level is built from a
+// decimated copy of the model next to it, e.g. sampledata/models/Earth/Earth_lod1.gltf, and only for the
+// copies that exist. List the built ones under lodAssets in the catalog.
+def lodModels = ['Sol', 'Mercury', 'Venus', 'Earth', 'Luna', 'Mars', 'Jupiter', 'Saturn', 'Neptune', 'Uranus']
+def lodLevels = [1, 2]
+
+lodModels.each { model ->
+    lodLevels.each { level ->
+        def source = "sampledata/models/${model}/${model}_lod${level}.gltf"
+        if( file(source).exists() ) {
+            sceneform.asset(source,
+                    'default',
+                    "sampledata/models/${model}/${model}_lod${level}.sfa",
+                    "src/main/assets/${model}_lod${level}")
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,131 @@
+package ptrprograms.com.arboardgame
+
+//Keplerian orbits for a whole system of bodies, solved in one pass over flat arrays with no allocation.
+//Positions are relative to each body's parent and use the scene's axes: the ecliptic is the XZ plane and +Y is up.
+class OrbitSystem(val capacity: Int) {
+
+    companion object {
+        const val NO_PARENT = -1
+
+        private const val TWO_PI = Math.PI * 2.0
+        private const val DEG_TO_RAD = Math.PI / 180.0
+        private const val KEPLER_ITERATIONS = 6
+    }
+
+    var size = 0
+        private set
+
+    private val parents = IntArray(capacity)
+    private val semiMajorAxes = FloatArray(capacity)
+    private val eccentricities = FloatArray(capacity)
+    private val minorAxisFactors = FloatArray(capacity)
+    private val meanAnomaliesAtEpoch = DoubleArray(capacity)
+    private val meanMotions = DoubleArray(capacity)
+
+    //Rotation from the orbital plane into the ecliptic, two columns of three per body
+    private val planeToEcliptic = FloatArray(capacity * 6)
+
+    //x, y, z per body after the last update
+    val positions = FloatArray(capacity * 3)
+
+    //Adds a body and returns its index. periodSeconds <= 0 keeps the body at its epoch position.
+    fun add(parent: Int,
+            semiMajorAxis: Float,
+            eccentricity: Float,
+            inclinationDeg: Float,
+            ascendingNodeDeg: Float,
+            argumentOfPeriapsisDeg: Float,
+            meanAnomalyAtEpochDeg: Float,
+            periodSeconds: Double) : Int {
+        if( size == capacity ) {
+            throw IllegalStateException("OrbitSystem is full")
+        }
+        if( parent >= size ) {
+            throw IllegalArgumentException("Parents have to be added before their satellites")
+        }
+        if( eccentricity < 0.0f || eccentricity >= 1.0f ) {
+            throw IllegalArgumentException("Only elliptical orbits are supported")
+        }
+
+        val i = size
+        parents[i] = parent
+        semiMajorAxes[i] = semiMajorAxis
+        eccentricities[i] = eccentricity
+        minorAxisFactors[i] = Math.sqrt(1.0 - eccentricity * eccentricity).toFloat()
+        meanAnomaliesAtEpoch[i] = meanAnomalyAtEpochDeg * DEG_TO_RAD
+        meanMotions[i] = if( periodSeconds > 0.0 ) TWO_PI / periodSeconds else 0.0
+
+        val cosNode = Math.cos(ascendingNodeDeg * DEG_TO_RAD)
+        val sinNode = Math.sin(ascendingNodeDeg * DEG_TO_RAD)
+        val cosPeri = Math.cos(argumentOfPeriapsisDeg * DEG_TO_RAD)
+        val sinPeri = Math.sin(argumentOfPeriapsisDeg * DEG_TO_RAD)
+        val cosInc = Math.cos(inclinationDeg * DEG_TO_RAD)
+        val sinInc = Math.sin(inclinationDeg * DEG_TO_RAD)
+
+        val m = i * 6
+        planeToEcliptic[m] = (cosNode * cosPeri - sinNode * sinPeri * cosInc).toFloat()
+        planeToEcliptic[m + 1] = (sinNode * cosPeri + cosNode * sinPeri * cosInc).toFloat()
+        planeToEcliptic[m + 2] = (sinPeri * sinInc).toFloat()
+        planeToEcliptic[m + 3] = (-cosNode * sinPeri - sinNode * cosPeri * cosInc).toFloat()
+        planeToEcliptic[m + 4] = (-sinNode * sinPeri + cosNode * cosPeri * cosInc).toFloat()
+        planeToEcliptic[m + 5] = (cosPeri * sinInc).toFloat()
+
+        size++
+        return i
+    }
+
+    fun parentOf(index: Int) : Int {
+        return parents[index]
+    }
+
+    //Position of a body relative to the root of its system after the last update, its own offset added to every
+    //parent's. Written to out as x, y, z.
+    fun systemPositionOf(index: Int, out: FloatArray) {
+        out[0] = 0.0f
+        out[1] = 0.0f
+        out[2] = 0.0f
+
+        var i = index
+        while( i != NO_PARENT ) {
+            val p = i * 3
+            out[0] += positions[p]
+            out[1] += positions[p + 1]
+            out[2] += positions[p + 2]
+            i = parents[i]
+        }
+    }
+
+    //Moves every body to where it is timeSeconds after the epoch
+    fun update(timeSeconds: Double) {
+        for( i in 0 until size ) {
+            val a = semiMajorAxes[i]
+            val e = eccentricities[i]
+
+            var meanAnomaly = (meanAnomaliesAtEpoch[i] + meanMotions[i] * timeSeconds) % TWO_PI
+            if( meanAnomaly < 0.0 ) {
+                meanAnomaly += TWO_PI
+            }
+
+            //Newton's method on Kepler's equation M = E - e sin E
+            var eccentricAnomaly = if( e > 0.8f ) Math.PI else meanAnomaly
+            for( iteration in 0 until KEPLER_ITERATIONS ) {
+                eccentricAnomaly -= (eccentricAnomaly - e * Math.sin(eccentricAnomaly) - meanAnomaly) /
+                        (1.0 - e * Math.cos(eccentricAnomaly))
+            }
+
+            val planeX = (a * (Math.cos(eccentricAnomaly) - e)).toFloat()
+            val planeY = (a * minorAxisFactors[i] * Math.sin(eccentricAnomaly)).toFloat()
+
+            val m = i * 6
+            val eclipticX = planeToEcliptic[m] * planeX + planeToEcliptic[m + 3] * planeY
+            val eclipticY = planeToEcliptic[m + 1] * planeX + planeToEcliptic[m + 4] * planeY
+            val eclipticZ = planeToEcliptic[m + 2] * planeX + planeToEcliptic[m + 5] * planeY
+
+            //Ecliptic north becomes scene up, and orbits run counter clockwise seen from above
+            val p = i * 3
+            positions[p] = eclipticX
+            positions[p + 1] = eclipticZ
+            positions[p + 2] = -eclipticY
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package ptrprograms.com.arboardgame
+
+//Plain float math for spinning bodies, kept free of Sceneform types so it can run anywhere
+object OrientationMath {
+
+    private const val DEG_TO_RAD = (Math.PI / 180.0).toFloat()
+
+    //Spin angle in degrees, wrapped to [0, 360), after the given time at the given speed
+    fun spinAngle(elapsedSeconds: Double, degreesPerSecond: Float, speedMultiplier: Float, clockwise: Boolean) : Float {
+        val angle = ((elapsedSeconds * degreesPerSecond * speedMultiplier) % 360.0).toFloat()
+        val wrapped = if( angle < 0.0f ) angle + 360.0f else angle
+        return if( clockwise && wrapped != 0.0f ) 360.0f - wrapped else wrapped
+    }
+
+    //Writes the tilt (about X) followed by spin (about Y) rotation into out as x, y, z, w.
+    //Same result as Quaternion.multiply(axisAngle(X, tilt), axisAngle(Y, spin)) without the allocations.
+    fun tiltedSpin(axisTiltDeg: Float, spinDeg: Float, out: FloatArray) {
+        val halfTilt = axisTiltDeg * DEG_TO_RAD * 0.5f
+        val halfSpin = spinDeg * DEG_TO_RAD * 0.5f
+
+        val tiltSin = Math.sin(halfTilt.toDouble()).toFloat()
+        val tiltCos = Math.cos(halfTilt.toDouble()).toFloat()
+        val spinSin = Math.sin(halfSpin.toDouble()).toFloat()
+        val spinCos = Math.cos(halfSpin.toDouble()).toFloat()
+
+        out[0] = tiltSin * spinCos
+        out[1] = tiltCos * spinSin
+        out[2] = tiltSin * spinSin
+        out[3] = tiltCos * spinCos
+    }
+}
@@ -0,0 +1,162 @@
+package ptrprograms.com.arboardgame
+
+import android.content.Context
+import com.google.ar.sceneform.AnchorNode
+import com.google.ar.sceneform.Node
+import com.google.ar.sceneform.math.Vector3
+
+//Shows every body in the catalog under one anchor, each orbiting its parent. Moons sit under their
+//planet's orbit node so they follow it around. Orbits are solved for all bodies in one pass per frame.
+class OrreryScene(
+    val context: Context,
+    val renderableCache: RenderableCache,
+    val infoCallback: InfoCallback?,
+    val billboardSystem: BillboardSystem?,
+    val cardPool: InfoCardPool?,
+    //Simulated seconds per scene second
+    val timeWarp: Double = DEFAULT_TIME_WARP,
+    val lodSystem: LodSystem? = null
+) {
+
+    companion object {
+        //One Earth year per minute
+        const val DEFAULT_TIME_WARP = 365.25 * 86400.0 / 60.0
+
+        //Distances are squashed with a square root so Neptune fits on a table and Mercury still clears the Sun
+        const val ORBIT_SCALE = 0.2f
+        const val ROOT_CLEARANCE = 0.15f
+        const val MOON_CLEARANCE = 0.06f
+
+        const val BODY_SCALE = 0.12f
+        const val SYSTEM_HEIGHT = 0.3f
+
+        private const val SECONDS_PER_DAY = 86400.0
+    }
+
+    private val catalog = renderableCache.catalog
+
+    private var anchorNode: AnchorNode? = null
+    private var orbits: OrbitSystem? = null
+
+    //Orbit node per orbit index, moved every frame
+    private var orbitNodes: Array<Node?> = emptyArray()
+    private var catalogIds = IntArray(0)
+
+    private val scratchPosition = Vector3()
+
+    fun isPlaced() : Boolean {
+        return anchorNode != null
+    }
+
+    fun place(anchor: AnchorNode) {
+        release()
+        anchorNode = anchor
+
+        val system = OrbitSystem(catalog.size)
+        val orbitIndexOf = IntArray(catalog.size) { OrbitSystem.NO_PARENT }
+        catalogIds = IntArray(catalog.size)
+
+        //Parents have to go in before their satellites, whatever order the catalog is in
+        var added = true
+        while( added ) {
+            added = false
+            for( id in 0 until catalog.size ) {
+                if( orbitIndexOf[id] != OrbitSystem.NO_PARENT ) {
+                    continue
+                }
+
+                val planet = catalog[id]
+                val parentIndex = if( planet.parentId == PlanetCatalog.UNKNOWN ) OrbitSystem.NO_PARENT else orbitIndexOf[planet.parentId]
+                if( planet.parentId != PlanetCatalog.UNKNOWN && parentIndex == OrbitSystem.NO_PARENT ) {
+                    continue
+                }
+
+                val index = addOrbit(system, planet, parentIndex)
+                orbitIndexOf[id] = index
+                catalogIds[index] = id
+                added = true
+            }
+        }
+
+        orbits = system
+        orbitNodes = arrayOfNulls(system.size)
+
+        for( index in 0 until system.size ) {
+            val parentIndex = system.parentOf(index)
+            val orbitNode = Node()
+            if( parentIndex == OrbitSystem.NO_PARENT ) {
+                orbitNode.setParent(anchor)
+            } else {
+                orbitNode.setParent(orbitNodes[parentIndex])
+            }
+            orbitNodes[index] = orbitNode
+            showBody(catalogIds[index], orbitNode, anchor)
+        }
+
+        update(0.0)
+    }
+
+    fun release() {
+        for( node in orbitNodes ) {
+            node?.setParent(null)
+        }
+        orbitNodes = emptyArray()
+        orbits = null
+
+        anchorNode?.anchor?.detach()
+        anchorNode?.setParent(null)
+        anchorNode = null
+    }
+
+    //Called once per frame with the scene time; moves every orbit node in one pass
+    fun update(sceneSeconds: Double) {
+        val system = orbits ?: return
+        system.update(sceneSeconds * timeWarp)
+
+        val positions = system.positions
+        for( index in 0 until system.size ) {
+            val p = index * 3
+            val y = if( system.parentOf(index) == OrbitSystem.NO_PARENT ) positions[p + 1] + SYSTEM_HEIGHT else positions[p + 1]
+            scratchPosition.set(positions[p], y, positions[p + 2])
+            //Node copies the value, so the scratch vector can be reused
+            orbitNodes[index]!!.localPosition = scratchPosition
+        }
+    }
+
+    private fun addOrbit(system: OrbitSystem, planet: PlanetInfo, parentIndex: Int) : Int {
+        val orbit = planet.orbit
+        if( orbit == null || parentIndex == OrbitSystem.NO_PARENT ) {
+            return system.add(parentIndex, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0)
+        }
+
+        val clearance = if( system.parentOf(parentIndex) == OrbitSystem.NO_PARENT ) ROOT_CLEARANCE else MOON_CLEARANCE
+        val distance = clearance + ORBIT_SCALE * Math.sqrt(orbit.semiMajorAxisAu.toDouble()).toFloat()
+
+        return system.add(
+            parent = parentIndex,
+            semiMajorAxis = distance,
+            eccentricity = orbit.eccentricity,
+            inclinationDeg = orbit.inclinationDeg,
+            ascendingNodeDeg = orbit.ascendingNodeDeg,
+            argumentOfPeriapsisDeg = orbit.argumentOfPeriapsisDeg,
+            meanAnomalyAtEpochDeg = orbit.meanAnomalyDeg,
+            periodSeconds = orbit.periodDays * SECONDS_PER_DAY)
+    }
+
+    private fun showBody(planetId: Int, orbitNode: Node, anchor: AnchorNode) {
+        val stage = renderableCache.get(planetId, LoadQueue.PRIORITY_VISIBLE) ?: return
+
+        stage.thenAccept { renderable ->
+            //The orrery may have been taken down while the model was loading
+            if( anchorNode !== anchor ) {
+                return@thenAccept
+            }
+
+            val celestialObject =
+                CelestialBody(context = context, planet = catalog[planetId], renderable = renderable, infoCallback = infoCallback,
+                    billboardSystem = billboardSystem, cardPool = cardPool, lodSystem = lodSystem)
+            celestialObject.localScale = Vector3(BODY_SCALE, BODY_SCALE, BODY_SCALE)
+            celestialObject.setParent(orbitNode)
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package ptrprograms.com.arboardgame
+
+import android.view.MotionEvent
+import com.google.ar.core.Anchor
+import com.google.ar.core.Frame
+import com.google.ar.core.Plane
+import com.google.ar.core.Pose
+import com.google.ar.core.TrackingState
+import com.google.ar.sceneform.Camera
+
+//Feeds the planes ARCore updates each frame into a PlaneIndex and answers placement from it, either for a tap
+//or on the largest plane that has stopped growing
+class PlacementService(val index: PlaneIndex = PlaneIndex()) {
+
+    companion object {
+        //Roughly a second at 30fps
+        const val DEFAULT_MIN_STABLE_FRAMES = 30
+    }
+
+    private val planeIds = HashMap<Plane, Int>()
+    private val planes = HashMap<Int, Plane>()
+    private var nextId = 0
+
+    private val localPoint = FloatArray(3)
+    private val worldPoint = FloatArray(3)
+    private var worldPolygon = FloatArray(64)
+
+    var queries = 0L
+        private set
+    var misses = 0L
+        private set
+
+    //Call once per frame from the scene update listener
+    fun update(frame: Frame) {
+        val startTime = System.nanoTime()
+        index.beginFrame()
+
+        for( plane in frame.getUpdatedTrackables(Plane::class.java) ) {
+            if( plane.subsumedBy != null || plane.trackingState == TrackingState.STOPPED ) {
+                forget(plane)
+                continue
+            }
+
+            //A paused plane can't take an anchor, it comes back as a fresh plane once ARCore tracks it again
+            if( plane.trackingState != TrackingState.TRACKING ) {
+                forget(plane)
+                continue
+            }
+
+            //Only floors and tables are indexed, which is all plane finding is configured for
+            if( plane.type != Plane.Type.HORIZONTAL_UPWARD_FACING ) {
+                continue
+            }
+
+            val polygon = plane.polygon
+            val vertexCount = polygon.limit() / 2
+            if( vertexCount < 3 ) {
+                continue
+            }
+
+            if( worldPolygon.size < vertexCount * 2 ) {
+                worldPolygon = FloatArray(vertexCount * 2)
+            }
+
+            //The polygon is x, z in the plane's own frame
+            val centerPose = plane.centerPose
+            for( i in 0 until vertexCount ) {
+                localPoint[0] = polygon.get(i * 2)
+                localPoint[1] = 0.0f
+                localPoint[2] = polygon.get(i * 2 + 1)
+                centerPose.transformPoint(localPoint, 0, worldPoint, 0)
+                worldPolygon[i * 2] = worldPoint[0]
+                worldPolygon[i * 2 + 1] = worldPoint[2]
+            }
+
+            val id = planeIds.getOrPut(plane) { nextId++ }
+            planes[id] = plane
+            index.update(id, centerPose.ty(), worldPolygon, vertexCount)
+        }
+
+        Metrics.planeIndexUpdate.record(System.nanoTime() - startTime)
+    }
+
+    //Anchor on the nearest indexed plane under the tap, or null if there is none
+    fun anchorForTap(tap: MotionEvent, camera: Camera) : Anchor? {
+        val startTime = System.nanoTime()
+        queries++
+
+        val ray = camera.screenPointToRay(tap.x, tap.y)
+        val origin = ray.origin
+        val direction = ray.direction
+        val id = index.query(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z)
+
+        Metrics.placementQuery.record(System.nanoTime() - startTime)
+
+        val plane = planes[id]
+        if( plane == null || plane.trackingState != TrackingState.TRACKING ) {
+            misses++
+            return null
+        }
+
+        return plane.createAnchor(Pose.makeTranslation(index.hitX, index.hitY, index.hitZ))
+    }
+
+    //Anchor in the middle of the largest plane that has held its size for minStableFrames, or null
+    fun anchorOnLargestPlane(minStableFrames: Int = DEFAULT_MIN_STABLE_FRAMES) : Anchor? {
+        val plane = planes[index.largestStable(minStableFrames)] ?: return null
+        //Tracking can drop between the last update and this call, createAnchor would throw
+        if( plane.trackingState != TrackingState.TRACKING ) {
+            return null
+        }
+        return plane.createAnchor(plane.centerPose)
+    }
+
+    fun clear() {
+        planeIds.clear()
+        planes.clear()
+        index.clear()
+    }
+
+    private fun forget(plane: Plane) {
+        val id = planeIds.remove(plane) ?: return
+        planes.remove(id)
+        index.remove(id)
+    }
+
+    override fun toString() : String {
+        return "PlacementService(planes=${index.size()}, queries=$queries, misses=$misses)"
+    }
+}
@@ -0,0 +1,241 @@
+package ptrprograms.com.arboardgame
+
+//Every tracked horizontal plane as a world space polygon at a fixed height, kept in flat arrays so a tap can be
+//answered with a ray cast against the index instead of a fresh hit test. Planes are updated as ARCore reports
+//changes to them, a query first rejects planes by bounding box and only then walks the polygon.
+class PlaneIndex(initialCapacity: Int = DEFAULT_CAPACITY) {
+
+    companion object {
+        const val NO_PLANE = -1
+        const val DEFAULT_CAPACITY = 16
+        //A plane whose area has moved by less than this since it last changed isn't counted as changing
+        const val STABLE_GROWTH = 0.05f
+
+        //Slot layout in bounds
+        private const val MIN_X = 0
+        private const val MIN_Z = 1
+        private const val MAX_X = 2
+        private const val MAX_Z = 3
+        private const val HEIGHT = 4
+        private const val BOUNDS_STRIDE = 5
+    }
+
+    private var capacity = Math.max(1, initialCapacity)
+    private var ids = IntArray(capacity)
+    private var bounds = FloatArray(capacity * BOUNDS_STRIDE)
+    //x, z pairs in world space
+    private var polygons = arrayOfNulls<FloatArray>(capacity)
+    private var vertexCounts = IntArray(capacity)
+    private var areas = FloatArray(capacity)
+    //Area when the plane last counted as changing, so slow growth adds up instead of passing update by update
+    private var changeAreas = FloatArray(capacity)
+    private var lastChangeFrames = LongArray(capacity)
+
+    //Plane id -> slot. Slots are packed, removing a plane moves the last one into its place.
+    private val slots = HashMap<Int, Int>()
+    private var count = 0
+
+    var frame = 0L
+        private set
+
+    //Set by the last successful query
+    var hitX = 0.0f
+        private set
+    var hitY = 0.0f
+        private set
+    var hitZ = 0.0f
+        private set
+
+    fun size() : Int {
+        return count
+    }
+
+    fun contains(id: Int) : Boolean {
+        return slots.containsKey(id)
+    }
+
+    fun beginFrame() {
+        frame++
+    }
+
+    //Adds or replaces a plane. polygon holds vertexCount x, z pairs in world space and is copied.
+    fun update(id: Int, height: Float, polygon: FloatArray, vertexCount: Int) {
+        if( vertexCount < 3 || polygon.size < vertexCount * 2 ) {
+            throw IllegalArgumentException("A plane needs at least 3 vertices")
+        }
+
+        var slot = slots[id]
+        if( slot == null ) {
+            if( count == capacity ) {
+                grow()
+            }
+            slot = count++
+            slots[id] = slot
+            ids[slot] = id
+            areas[slot] = 0.0f
+            changeAreas[slot] = 0.0f
+            lastChangeFrames[slot] = frame
+        }
+
+        var stored = polygons[slot]
+        if( stored == null || stored.size < vertexCount * 2 ) {
+            stored = FloatArray(vertexCount * 2)
+            polygons[slot] = stored
+        }
+        System.arraycopy(polygon, 0, stored, 0, vertexCount * 2)
+        vertexCounts[slot] = vertexCount
+
+        var minX = Float.MAX_VALUE
+        var minZ = Float.MAX_VALUE
+        var maxX = -Float.MAX_VALUE
+        var maxZ = -Float.MAX_VALUE
+        for( i in 0 until vertexCount ) {
+            val x = stored[i * 2]
+            val z = stored[i * 2 + 1]
+            if( x < minX ) minX = x
+            if( x > maxX ) maxX = x
+            if( z < minZ ) minZ = z
+            if( z > maxZ ) maxZ = z
+        }
+
+        val base = slot * BOUNDS_STRIDE
+        bounds[base + MIN_X] = minX
+        bounds[base + MIN_Z] = minZ
+        bounds[base + MAX_X] = maxX
+        bounds[base + MAX_Z] = maxZ
+        bounds[base + HEIGHT] = height
+
+        val area = polygonArea(stored, vertexCount)
+        if( Math.abs(area - changeAreas[slot]) > changeAreas[slot] * STABLE_GROWTH ) {
+            lastChangeFrames[slot] = frame
+            changeAreas[slot] = area
+        }
+        areas[slot] = area
+    }
+
+    fun remove(id: Int) : Boolean {
+        val slot = slots.remove(id) ?: return false
+        val last = --count
+
+        if( slot != last ) {
+            ids[slot] = ids[last]
+            System.arraycopy(bounds, last * BOUNDS_STRIDE, bounds, slot * BOUNDS_STRIDE, BOUNDS_STRIDE)
+            //Swap rather than copy so both slots keep a polygon buffer to reuse
+            val polygon = polygons[slot]
+            polygons[slot] = polygons[last]
+            polygons[last] = polygon
+            vertexCounts[slot] = vertexCounts[last]
+            areas[slot] = areas[last]
+            changeAreas[slot] = changeAreas[last]
+            lastChangeFrames[slot] = lastChangeFrames[last]
+            slots[ids[slot]] = slot
+        }
+
+        return true
+    }
+
+    fun clear() {
+        slots.clear()
+        count = 0
+    }
+
+    //Casts a ray and returns the id of the nearest plane it hits inside its polygon, or NO_PLANE.
+    //The hit point is left in hitX, hitY and hitZ.
+    fun query(originX: Float, originY: Float, originZ: Float, dirX: Float, dirY: Float, dirZ: Float) : Int {
+        //Planes are horizontal, so a ray that doesn't move up or down never reaches one
+        if( Math.abs(dirY) < 1e-6f ) {
+            return NO_PLANE
+        }
+
+        var nearestId = NO_PLANE
+        var nearestT = Float.MAX_VALUE
+
+        for( slot in 0 until count ) {
+            val base = slot * BOUNDS_STRIDE
+            val t = (bounds[base + HEIGHT] - originY) / dirY
+            if( t <= 0.0f || t >= nearestT ) {
+                continue
+            }
+
+            val x = originX + dirX * t
+            val z = originZ + dirZ * t
+            if( x < bounds[base + MIN_X] || x > bounds[base + MAX_X] || z < bounds[base + MIN_Z] || z > bounds[base + MAX_Z] ) {
+                continue
+            }
+
+            if( containsPoint(polygons[slot]!!, vertexCounts[slot], x, z) ) {
+                nearestId = ids[slot]
+                nearestT = t
+                hitX = x
+                hitY = bounds[base + HEIGHT]
+                hitZ = z
+            }
+        }
+
+        return nearestId
+    }
+
+    //Id of the largest plane whose area hasn't changed for minStableFrames frames, or NO_PLANE
+    fun largestStable(minStableFrames: Int) : Int {
+        var largestId = NO_PLANE
+        var largestArea = 0.0f
+
+        for( slot in 0 until count ) {
+            if( frame - lastChangeFrames[slot] >= minStableFrames && areas[slot] > largestArea ) {
+                largestArea = areas[slot]
+                largestId = ids[slot]
+            }
+        }
+
+        return largestId
+    }
+
+    fun areaOf(id: Int) : Float {
+        val slot = slots[id] ?: return 0.0f
+        return areas[slot]
+    }
+
+    fun heightOf(id: Int) : Float {
+        val slot = slots[id] ?: return 0.0f
+        return bounds[slot * BOUNDS_STRIDE + HEIGHT]
+    }
+
+    private fun grow() {
+        capacity *= 2
+        ids = ids.copyOf(capacity)
+        bounds = bounds.copyOf(capacity * BOUNDS_STRIDE)
+        polygons = polygons.copyOf(capacity)
+        vertexCounts = vertexCounts.copyOf(capacity)
+        areas = areas.copyOf(capacity)
+        changeAreas = changeAreas.copyOf(capacity)
+        lastChangeFrames = lastChangeFrames.copyOf(capacity)
+    }
+
+    //Even-odd rule, so it works for the convex polygons ARCore reports and anything else
+    private fun containsPoint(polygon: FloatArray, vertexCount: Int, x: Float, z: Float) : Boolean {
+        var inside = false
+        var j = vertexCount - 1
+        for( i in 0 until vertexCount ) {
+            val xi = polygon[i * 2]
+            val zi = polygon[i * 2 + 1]
+            val xj = polygon[j * 2]
+            val zj = polygon[j * 2 + 1]
+            if( (zi > z) != (zj > z) && x < (xj - xi) * (z - zi) / (zj - zi) + xi ) {
+                inside = !inside
+            }
+            j = i
+        }
+        return inside
+    }
+
+    //Shoelace formula
+    private fun polygonArea(polygon: FloatArray, vertexCount: Int) : Float {
+        var sum = 0.0f
+        var j = vertexCount - 1
+        for( i in 0 until vertexCount ) {
+            sum += polygon[j * 2] * polygon[i * 2 + 1] - polygon[i * 2] * polygon[j * 2 + 1]
+            j = i
+        }
+        return Math.abs(sum) * 0.5f
+    }
+}
@@ -0,0 +1,192 @@
+package ptrprograms.com.arboardgame
+
+import android.content.Context
+import android.util.Log
+import org.json.JSONException
+import org.json.JSONObject
+
+//Everything we know about one body. Display values are worked out once when the catalog is built.
+class PlanetInfo(
+    val id: Int,
+    val name: String,
+    val asset: String,
+    val radiusKm: Float,
+    val axialTiltDeg: Float,
+    val clockwise: Boolean,
+    val rotationPeriodHours: Float,
+    val description: String,
+    val displayScale: Float,
+    val degreesPerSecond: Float,
+    //Body this one orbits, PlanetCatalog.UNKNOWN for the root of the system
+    val parentId: Int,
+    val orbit: OrbitalElements?,
+    //Uids of the NFC tags that stand for this body, as hex
+    val tagUids: List<String>,
+    //Coarser models for when the body is small on screen, LOD 1 first
+    val lodAssets: List<String> = emptyList()
+) {
+    //Levels of detail including the full model
+    val lodCount: Int
+        get() = lodAssets.size + 1
+
+    fun assetFor(level: Int) : String {
+        return if( level <= 0 ) asset else lodAssets[Math.min(level, lodAssets.size) - 1]
+    }
+}
+
+//Keplerian elements relative to the parent body
+class OrbitalElements(
+    val semiMajorAxisAu: Float,
+    val eccentricity: Float,
+    val inclinationDeg: Float,
+    val ascendingNodeDeg: Float,
+    val argumentOfPeriapsisDeg: Float,
+    val meanAnomalyDeg: Float,
+    val periodDays: Float
+)
+
+//Bodies bundled in assets/planets.json, indexed by id so the per-tap and per-frame paths never match strings.
+//Adding a body only needs a new entry in the asset and its model.
+class PlanetCatalog(private val bodies: Array<PlanetInfo>) {
+
+    companion object {
+        const val UNKNOWN = -1
+        const val ASSET_NAME = "planets.json"
+
+        //Real sizes span two orders of magnitude, so they are squashed onto a log scale for display
+        const val MIN_DISPLAY_SCALE = 0.5f
+        const val MAX_DISPLAY_SCALE = 1.6f
+
+        //Same for rotation, from Venus' 243 days to Jupiter's 10 hours
+        const val MIN_DEGREES_PER_SECOND = 15.0f
+        const val MAX_DEGREES_PER_SECOND = 120.0f
+
+        @Volatile
+        private var instance: PlanetCatalog? = null
+
+        fun getInstance(context: Context) : PlanetCatalog {
+            return instance ?: synchronized(this) {
+                instance ?: load(context).also { instance = it }
+            }
+        }
+
+        fun load(context: Context) : PlanetCatalog {
+            return try {
+                val json = context.assets.open(ASSET_NAME).bufferedReader().use { it.readText() }
+                parse(json)
+            } catch( e: Exception ) {
+                Log.w("PlanetCatalog", "Failed to load $ASSET_NAME", e)
+                PlanetCatalog(emptyArray())
+            }
+        }
+
+        @Throws(JSONException::class)
+        fun parse(json: String) : PlanetCatalog {
+            val entries = JSONObject(json).getJSONArray("bodies")
+
+            var minRadius = Float.MAX_VALUE
+            var maxRadius = 0.0f
+            var minPeriod = Float.MAX_VALUE
+            var maxPeriod = 0.0f
+            for( i in 0 until entries.length() ) {
+                val entry = entries.getJSONObject(i)
+                val radius = entry.getDouble("radiusKm").toFloat()
+                val period = entry.getDouble("rotationPeriodHours").toFloat()
+                minRadius = Math.min(minRadius, radius)
+                maxRadius = Math.max(maxRadius, radius)
+                minPeriod = Math.min(minPeriod, period)
+                maxPeriod = Math.max(maxPeriod, period)
+            }
+
+            val names = HashMap<String, Int>()
+            for( i in 0 until entries.length() ) {
+                names[entries.getJSONObject(i).getString("name")] = i
+            }
+
+            val bodies = Array(entries.length()) { i ->
+                val entry = entries.getJSONObject(i)
+                val radius = entry.getDouble("radiusKm").toFloat()
+                val period = entry.getDouble("rotationPeriodHours").toFloat()
+                val orbit = entry.optJSONObject("orbit")
+                val tagUids = entry.optJSONArray("tagUids")
+                val lodAssets = entry.optJSONArray("lodAssets")
+
+                PlanetInfo(
+                    id = i,
+                    name = entry.getString("name"),
+                    asset = entry.getString("asset"),
+                    radiusKm = radius,
+                    axialTiltDeg = entry.getDouble("axialTiltDeg").toFloat(),
+                    clockwise = entry.optBoolean("clockwise", false),
+                    rotationPeriodHours = period,
+                    description = entry.optString("description", ""),
+                    displayScale = logLerp(radius, minRadius, maxRadius, MIN_DISPLAY_SCALE, MAX_DISPLAY_SCALE),
+                    //Shorter days spin faster
+                    degreesPerSecond = logLerp(period, minPeriod, maxPeriod, MAX_DEGREES_PER_SECOND, MIN_DEGREES_PER_SECOND),
+                    parentId = if( orbit == null ) UNKNOWN else names[orbit.getString("parent")] ?: UNKNOWN,
+                    orbit = if( orbit == null ) null else OrbitalElements(
+                        semiMajorAxisAu = orbit.getDouble("semiMajorAxisAu").toFloat(),
+                        eccentricity = orbit.optDouble("eccentricity", 0.0).toFloat(),
+                        inclinationDeg = orbit.optDouble("inclinationDeg", 0.0).toFloat(),
+                        ascendingNodeDeg = orbit.optDouble("ascendingNodeDeg", 0.0).toFloat(),
+                        argumentOfPeriapsisDeg = orbit.optDouble("argumentOfPeriapsisDeg", 0.0).toFloat(),
+                        meanAnomalyDeg = orbit.optDouble("meanAnomalyDeg", 0.0).toFloat(),
+                        periodDays = orbit.getDouble("periodDays").toFloat()),
+                    tagUids = if( tagUids == null ) emptyList() else List(tagUids.length()) { tagUids.getString(it) },
+                    lodAssets = if( lodAssets == null ) emptyList() else List(lodAssets.length()) { lodAssets.getString(it) })
+            }
+
+            return PlanetCatalog(bodies)
+        }
+
+        private fun logLerp(value: Float, min: Float, max: Float, from: Float, to: Float) : Float {
+            if( max <= min ) {
+                return from
+            }
+
+            val t = (Math.log(value.toDouble()) - Math.log(min.toDouble())) /
+                    (Math.log(max.toDouble()) - Math.log(min.toDouble()))
+            return (from + (to - from) * t).toFloat()
+        }
+    }
+
+    //Only used where values come in as text, i.e. once per Firebase update
+    private val ids = HashMap<String, Int>().apply {
+        for( body in bodies ) {
+            put(body.name, body.id)
+        }
+    }
+
+    //Resolves the uid in a TagFrame to a body without going through its name.
+    //A mistyped uid only loses that tag, not the whole catalog.
+    val uidTable = TagUidTable(HashMap<Long, Int>().apply {
+        for( body in bodies ) {
+            for( uid in body.tagUids ) {
+                try {
+                    put(TagUidTable.key(uid), body.id)
+                } catch( e: IllegalArgumentException ) {
+                    Log.w("PlanetCatalog", "Ignoring tag uid \"$uid\" of ${body.name}", e)
+                }
+            }
+        }
+    })
+
+    val size: Int
+        get() = bodies.size
+
+    operator fun get(id: Int) : PlanetInfo {
+        return bodies[id]
+    }
+
+    fun getOrNull(id: Int) : PlanetInfo? {
+        return if( id in bodies.indices ) bodies[id] else null
+    }
+
+    fun idOf(name: String) : Int {
+        return ids[name] ?: UNKNOWN
+    }
+
+    fun contains(name: String) : Boolean {
+        return ids.containsKey(name)
+    }
+}
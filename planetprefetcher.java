@@ -0,0 +1,85 @@
+package ptrprograms.com.arboardgame
+
+//Learns the order in which game pieces are swapped and warms the most likely next model ahead of time
+class PlanetPrefetcher(
+    val maxPrefetches: Int = DEFAULT_MAX_PREFETCHES,
+    val minObservations: Int = DEFAULT_MIN_OBSERVATIONS,
+    val warm: (String) -> Unit
+) {
+
+    companion object {
+        const val DEFAULT_MAX_PREFETCHES = 1
+        const val DEFAULT_MIN_OBSERVATIONS = 1
+    }
+
+    //First order Markov table: previous value -> next value -> times seen
+    private val transitions = HashMap<String, HashMap<String, Int>>()
+
+    //Values warmed after the last transition, used to tell whether a prefetch paid off
+    private val prefetched = HashSet<String>()
+
+    private var previous: String? = null
+
+    var prefetches = 0L
+        private set
+    var hits = 0L
+        private set
+    var predictions = 0L
+        private set
+
+    init {
+        if( maxPrefetches < 0 ) {
+            throw IllegalArgumentException("maxPrefetches can't be negative")
+        }
+    }
+
+    //Called with every value that comes back from Firebase
+    @Synchronized
+    fun onValue(celestialKey: String) {
+        val last = previous
+        if( last == celestialKey ) {
+            return
+        }
+
+        if( prefetched.isNotEmpty() ) {
+            predictions++
+            if( prefetched.contains(celestialKey) ) {
+                hits++
+            }
+            prefetched.clear()
+        }
+
+        if( last != null ) {
+            val row = transitions.getOrPut(last) { HashMap() }
+            row[celestialKey] = (row[celestialKey] ?: 0) + 1
+        }
+
+        previous = celestialKey
+
+        for( next in predict(celestialKey, maxPrefetches) ) {
+            prefetched.add(next)
+            prefetches++
+            warm(next)
+        }
+    }
+
+    //Most likely values to follow the given one, best guess first
+    @Synchronized
+    fun predict(celestialKey: String, count: Int) : List<String> {
+        val row = transitions[celestialKey] ?: return emptyList()
+
+        return row.entries
+            .filter { it.value >= minObservations }
+            .sortedByDescending { it.value }
+            .take(count)
+            .map { it.key }
+    }
+
+    fun hitRate() : Float {
+        return if( predictions == 0L ) 0.0f else hits.toFloat() / predictions
+    }
+
+    override fun toString() : String {
+        return "PlanetPrefetcher(prefetches=$prefetches, predictions=$predictions, hits=$hits, hitRate=${hitRate()})"
+    }
+}
@@ -0,0 +1,296 @@
+package ptrprograms.com.arboardgame
+
+import android.content.Context
+import android.net.Uri
+import android.os.SystemClock
+import android.util.Log
+import com.google.ar.sceneform.rendering.ModelRenderable
+import java.util.concurrent.CompletableFuture
+
+//Loads 3D models the first time they are asked for and keeps only the most recently used ones around.
+//Loads go through a LoadQueue so the model for the current value starts ahead of prefetches and only a few
+//load at once. Listeners hear about each model as soon as it is ready or has failed for good.
+class RenderableCache(
+    val context: Context,
+    val catalog: PlanetCatalog,
+    val maxEntries: Int = DEFAULT_MAX_ENTRIES,
+    maxInFlight: Int = LoadQueue.DEFAULT_MAX_IN_FLIGHT,
+    scheduler: (delayMs: Long, task: () -> Unit) -> Unit
+) {
+
+    companion object {
+        const val DEFAULT_MAX_ENTRIES = 3
+
+        //Lower detail variants are cached under the catalog id with their level in the upper bits,
+        //so level 0 keys are plain catalog ids
+        private const val LEVEL_SHIFT = 16
+
+        fun keyOf(id: Int, level: Int) : Int {
+            return id or (level shl LEVEL_SHIFT)
+        }
+
+        fun idOfKey(key: Int) : Int {
+            return key and ((1 shl LEVEL_SHIFT) - 1)
+        }
+
+        fun levelOfKey(key: Int) : Int {
+            return key ushr LEVEL_SHIFT
+        }
+    }
+
+    //Called with keyOf(id, level), which is just the catalog id for full detail models
+    interface Listener {
+        fun onReady(key: Int)
+        fun onFailed(key: Int, error: Throwable)
+    }
+
+    //Keyed by keyOf(id, level). Access ordered so the eldest entry is always the least recently used one.
+    //Can go over maxEntries by the loads in flight, see trim().
+    private val entries = LinkedHashMap<Int, CompletableFuture<ModelRenderable>>(16, 0.75f, true)
+
+    //Results handed out for loads that haven't finished yet
+    private val loading = HashMap<Int, CompletableFuture<ModelRenderable>>()
+
+    private val ready = HashSet<Int>()
+
+    private val listeners = ArrayList<Listener>()
+
+    private val loadQueue = LoadQueue(maxInFlight = maxInFlight, scheduler = scheduler) { key, attempt ->
+        startLoad(key, attempt)
+    }
+
+    var hits = 0L
+        private set
+    var misses = 0L
+        private set
+    var evictions = 0L
+        private set
+    var loads = 0L
+        private set
+    var failures = 0L
+        private set
+    var totalLoadTimeMs = 0L
+        private set
+
+    init {
+        if( maxEntries < 1 ) {
+            throw IllegalArgumentException("maxEntries must be at least 1")
+        }
+    }
+
+    //Returns the pending or finished load for a body, queueing it if needed.
+    //Null for unknown bodies and levels of detail the body doesn't have.
+    fun get(id: Int, priority: Int = LoadQueue.PRIORITY_CURRENT, level: Int = 0) : CompletableFuture<ModelRenderable>? {
+        val key = keyOf(id, level)
+        val result: CompletableFuture<ModelRenderable>
+        val evicted: List<CompletableFuture<ModelRenderable>>
+        synchronized(this) {
+            val cached = entries[key]
+            if( cached != null ) {
+                hits++
+                result = cached
+                evicted = emptyList()
+            } else {
+                val planet = catalog.getOrNull(id) ?: return null
+                if( level < 0 || level >= planet.lodCount ) {
+                    return null
+                }
+                misses++
+
+                result = CompletableFuture()
+                entries[key] = result
+                loading[key] = result
+                evicted = trim()
+            }
+        }
+
+        for( stage in evicted ) {
+            stage.cancel(false)
+        }
+
+        //Also bumps the priority of a load that is still waiting
+        if( !result.isDone ) {
+            loadQueue.enqueue(key, priority)
+        }
+        return result
+    }
+
+    //Same as get(id) for values that come in as text, e.g. from Firebase
+    fun get(key: String, priority: Int = LoadQueue.PRIORITY_CURRENT) : CompletableFuture<ModelRenderable>? {
+        return get(catalog.idOf(key), priority)
+    }
+
+    //Returns the model only if it has already finished loading. Doesn't count as a hit or miss and doesn't start
+    //a load, so a failed model stays failed until get() asks for it again.
+    @Synchronized
+    fun getIfReady(id: Int, level: Int = 0) : ModelRenderable? {
+        val key = keyOf(id, level)
+        if( !ready.contains(key) ) {
+            return null
+        }
+
+        //Still a use as far as eviction goes
+        return entries[key]?.getNow(null)
+    }
+
+    //Doesn't count as a use, so it can be polled without keeping the model in the cache
+    @Synchronized
+    fun isReady(id: Int, level: Int = 0) : Boolean {
+        return ready.contains(keyOf(id, level))
+    }
+
+    @Synchronized
+    fun contains(id: Int, level: Int = 0) : Boolean {
+        return entries.containsKey(keyOf(id, level))
+    }
+
+    @Synchronized
+    fun addListener(listener: Listener) {
+        listeners.add(listener)
+    }
+
+    @Synchronized
+    fun removeListener(listener: Listener) {
+        listeners.remove(listener)
+    }
+
+    fun clear() {
+        val dropped: List<CompletableFuture<ModelRenderable>>
+        synchronized(this) {
+            for( key in loading.keys ) {
+                loadQueue.cancel(key)
+            }
+            dropped = ArrayList(loading.values)
+            entries.clear()
+            loading.clear()
+            ready.clear()
+        }
+
+        for( stage in dropped ) {
+            stage.cancel(false)
+        }
+    }
+
+    fun averageLoadTimeMs() : Long {
+        return if( loads == 0L ) 0L else totalLoadTimeMs / loads
+    }
+
+    //Called by the load queue once there is room for another load. Must be on the UI thread for Sceneform.
+    private fun startLoad(key: Int, attempt: Int) {
+        val startTime = SystemClock.elapsedRealtimeNanos()
+        if( attempt > 1 ) {
+            Log.d("RenderableCache", "Retrying ${nameOf(key)}, attempt $attempt")
+        }
+
+        try {
+            ModelRenderable.builder()
+                .setSource(context, Uri.parse(catalog[idOfKey(key)].assetFor(levelOfKey(key))))
+                .build()
+                .handle { renderable, error ->
+                    onLoaded(key, startTime, renderable, error)
+                }
+        } catch( e: RuntimeException ) {
+            onLoaded(key, startTime, null, e)
+        }
+    }
+
+    private fun onLoaded(key: Int, startTime: Long, renderable: ModelRenderable?, error: Throwable?) {
+        if( error != null || renderable == null ) {
+            onLoadFailed(key, error ?: IllegalStateException("No model for ${nameOf(key)}"))
+            return
+        }
+
+        val loadTimeNs = SystemClock.elapsedRealtimeNanos() - startTime
+        Metrics.renderableLoad.record(loadTimeNs)
+        loadQueue.onLoaded(key)
+
+        val result: CompletableFuture<ModelRenderable>?
+        val evicted: List<CompletableFuture<ModelRenderable>>
+        val toNotify: List<Listener>
+        synchronized(this) {
+            loads++
+            totalLoadTimeMs += loadTimeNs / 1000000
+            result = loading.remove(key)
+            //Only models that are still cached count as ready, an evicted one has to be loaded again
+            if( result != null && entries.containsKey(key) ) {
+                ready.add(key)
+            }
+            //It may have been kept past maxEntries while it was loading
+            evicted = trim()
+            toNotify = ArrayList(listeners)
+        }
+
+        for( stage in evicted ) {
+            stage.cancel(false)
+        }
+        result?.complete(renderable)
+        for( listener in toNotify ) {
+            listener.onReady(key)
+        }
+    }
+
+    private fun onLoadFailed(key: Int, error: Throwable) {
+        if( loadQueue.onFailed(key) ) {
+            Log.w("RenderableCache", "Failed to load ${nameOf(key)}, will retry", error)
+            return
+        }
+
+        val result: CompletableFuture<ModelRenderable>?
+        val toNotify: List<Listener>
+        synchronized(this) {
+            failures++
+            result = loading.remove(key)
+            //Drop the failed load so the next request tries again from scratch
+            if( result != null ) {
+                entries.remove(key, result)
+            }
+            toNotify = ArrayList(listeners)
+        }
+
+        Log.w("RenderableCache", "Giving up on ${nameOf(key)}", error)
+        result?.completeExceptionally(error)
+        for( listener in toNotify ) {
+            listener.onFailed(key, error)
+        }
+    }
+
+    //Evicts least recently used entries until the cache fits. A load that has already started can't be stopped,
+    //so its entry stays until it finishes, otherwise a second request would start another load and the first
+    //result would never complete. Loads still waiting are dropped from the queue, their results are returned for
+    //the caller to cancel once it has let go of the lock.
+    private fun trim() : List<CompletableFuture<ModelRenderable>> {
+        var evicted: MutableList<CompletableFuture<ModelRenderable>>? = null
+        val iterator = entries.entries.iterator()
+        while( entries.size > maxEntries && iterator.hasNext() ) {
+            val entry = iterator.next()
+            val key = entry.key
+            if( loading.containsKey(key) ) {
+                if( !loadQueue.cancel(key) ) {
+                    continue
+                }
+                loading.remove(key)
+                if( evicted == null ) {
+                    evicted = ArrayList()
+                }
+                evicted.add(entry.value)
+            }
+
+            iterator.remove()
+            ready.remove(key)
+            evictions++
+        }
+
+        return evicted ?: emptyList()
+    }
+
+    private fun nameOf(key: Int) : String {
+        val level = levelOfKey(key)
+        val name = catalog[idOfKey(key)].name
+        return if( level == 0 ) name else "$name (LOD $level)"
+    }
+
+    override fun toString() : String {
+        return "RenderableCache(hits=$hits, misses=$misses, evictions=$evictions, failures=$failures, " +
+                "avgLoadMs=${averageLoadTimeMs()}, $loadQueue)"
+    }
+}
@@ -0,0 +1,151 @@
+package ptrprograms.com.arboardgame
+
+//One recorded update: when it happened, which piece it was for and what it said
+class TraceEvent(val timeMs: Long, val pieceId: String, val planet: String)
+
+//Plays a recorded trace back in place of Firebase, at real time or sped up. Scheduling is injected
+//like in TagEventPipeline, so it runs on a Handler in the app and on a virtual clock anywhere else.
+class ReplayTagSource(
+    val trace: List<TraceEvent>,
+    val speed: Double = 1.0,
+    private val scheduler: (delayMs: Long, task: () -> Unit) -> Unit
+) : TagDataSource {
+
+    companion object {
+        const val DEFAULT_PIECE_ID = "1"
+
+        //Parses lines of "<time ms>,<gamesetting>", where gamesetting is what the gateway published: a comma
+        //separated batch of base64 TagFrames. Each frame is decoded as FirebaseTagSource does and its uid mapped to
+        //a planet name with planetFor, which is given TagFrame.uidKey() and returns null for unknown tags.
+        //Frames with unknown uids are left out, as are malformed ones.
+        //Traces recorded before the frames, "<time ms>,<value>" or "<time ms>,<piece id>,<value>" with value a
+        //planet name, still parse. Anything after the value (e.g. a timestamp) is ignored.
+        fun parse(lines: Sequence<String>, planetFor: (uidKey: Long) -> String? = { null }) : List<TraceEvent> {
+            val events = ArrayList<TraceEvent>()
+            val frame = TagFrame()
+            for( line in lines ) {
+                val trimmed = line.trim()
+                if( trimmed.isEmpty() || trimmed.startsWith("#") ) {
+                    continue
+                }
+
+                val fields = trimmed.split(',')
+                val timeMs = fields[0].trim().toLongOrNull() ?: continue
+                if( fields.size < 2 ) {
+                    continue
+                }
+
+                if( frame.decodeBase64(fields[1].trim()) ) {
+                    for( i in 1 until fields.size ) {
+                        if( i > 1 && !frame.decodeBase64(fields[i].trim()) ) {
+                            continue
+                        }
+
+                        val planet = if( frame.isPresent ) planetFor(frame.uidKey()) else TagEventPipeline.NONE
+                        if( planet != null ) {
+                            events.add(TraceEvent(timeMs, frame.pieceId.toString(), planet))
+                        }
+                    }
+                    continue
+                }
+
+                when {
+                    fields.size == 2 -> events.add(TraceEvent(timeMs, DEFAULT_PIECE_ID, fields[1].trim()))
+                    else -> events.add(TraceEvent(timeMs, fields[1].trim(), fields[2].trim()))
+                }
+            }
+            events.sortBy { it.timeMs }
+            return events
+        }
+    }
+
+    private val pieceListeners = HashMap<String, ArrayList<(TagReading) -> Unit>>()
+    private val boardListeners = ArrayList<(Map<String, TagReading>) -> Unit>()
+    private val board = HashMap<String, TagReading>()
+
+    @Volatile
+    private var isClosed = false
+    private var isStarted = false
+
+    //Next event for replayNext()
+    private var nextEvent = 0
+
+    var delivered = 0L
+        private set
+
+    init {
+        if( speed <= 0.0 ) {
+            throw IllegalArgumentException("speed must be positive")
+        }
+    }
+
+    override fun observePiece(pieceId: String, listener: (TagReading) -> Unit) {
+        pieceListeners.getOrPut(pieceId) { ArrayList() }.add(listener)
+    }
+
+    override fun observeBoard(listener: (Map<String, TagReading>) -> Unit) {
+        boardListeners.add(listener)
+    }
+
+    override fun close() {
+        isClosed = true
+    }
+
+    //Schedules every event relative to the first one, scaled by speed
+    fun start() {
+        if( isStarted || trace.isEmpty() ) {
+            return
+        }
+        isStarted = true
+
+        val firstTime = trace[0].timeMs
+        for( event in trace ) {
+            val delayMs = ((event.timeMs - firstTime) / speed).toLong()
+            scheduler(delayMs) { deliver(event) }
+        }
+    }
+
+    //Pushes the whole trace through synchronously, for measuring the handling cost alone
+    fun replayNow() {
+        for( event in trace ) {
+            deliver(event)
+        }
+    }
+
+    //Pushes the next count events through synchronously, starting over once the trace runs out. Lets a load test
+    //feed a steady number of events per frame for as long as it likes.
+    fun replayNext(count: Int) {
+        if( trace.isEmpty() ) {
+            return
+        }
+
+        for( i in 0 until count ) {
+            deliver(trace[nextEvent])
+            nextEvent = if( nextEvent + 1 == trace.size ) 0 else nextEvent + 1
+        }
+    }
+
+    private fun deliver(event: TraceEvent) {
+        if( isClosed ) {
+            return
+        }
+
+        //Recorded read times are from another run, so they would only skew the end-to-end latency
+        val reading = TagReading(event.planet)
+        delivered++
+
+        val listeners = pieceListeners[event.pieceId]
+        if( listeners != null ) {
+            for( listener in listeners ) {
+                listener(reading)
+            }
+        }
+
+        if( boardListeners.isNotEmpty() ) {
+            board[event.pieceId] = reading
+            for( listener in boardListeners ) {
+                listener(board)
+            }
+        }
+    }
+}
@@ -68,6 +68,16 @@ RFID::RFID(uint8_t chipSelectPin, uint8_t NRSTPD, uint8_t mosiPin, uint8_t misoP
 	}
  }
 
+ /*
+  * Like isCard() but with a WUPA, which halted cards answer as well as idle ones
+  */
+ bool RFID::wakeCard()
+ {
+	uint8_t str[MAX_LEN];
+
+	return MFRC522Request(PICC_REQALL, str) == MI_OK;
+ }
+
  bool RFID::readCardSerial(){
 
 	uint8_t status;
@@ -171,6 +181,15 @@ void RFID::antennaOn(void)
 }
 
 
+/*
+ * Turns the antenna off. Cards on the reader lose power and go back to the idle state.
+ */
+void RFID::antennaOff(void)
+{
+	clearBitMask(TxControlReg, 0x03);
+}
+
+
 void RFID::setBitMask(uint8_t reg, uint8_t mask)  
 { 
     uint8_t tmp;
@@ -522,6 +541,52 @@ void RFID::halt()
     status = MFRC522ToCard(PCD_TRANSCEIVE, buff, 4, buff,&unLen);
 }
 
+
+/*
+ * Sends a WUPA without waiting for the answer. The IRQ pin goes low once a card replies,
+ * so nothing has to be polled over SPI while the reader is empty.
+ * isCard() reprograms CommIEnReg, so this has to be called again before every wait.
+ */
+void RFID::armCardIrq()
+{
+    writeMFRC522(CommIEnReg, 0xA0);			//IRqInv=1, RxIEn=1: IRQ active low, only on receive
+    writeMFRC522(CommIrqReg, 0x7F);			//Clear all interrupt request bits
+    writeMFRC522(CommandReg, PCD_IDLE);
+    setBitMask(FIFOLevelReg, 0x80);			//FlushBuffer=1
+
+    writeMFRC522(FIFODataReg, PICC_REQALL);
+    writeMFRC522(CommandReg, PCD_TRANSCEIVE);
+    writeMFRC522(BitFramingReg, 0x87);		//StartSend=1, REQA is 7 bits
+}
+
+bool RFID::cardIrqPending()
+{
+    return (readMFRC522(CommIrqReg) & 0x20) != 0;	//RxIRq
+}
+
+/*
+ * Reads the ATQA a card sent in answer to armCardIrq(). The card is left in the ready state, so
+ * it has to go straight on to anticoll() rather than be asked again with isCard().
+ */
+bool RFID::readCardIrqAnswer(uint8_t *atqa)
+{
+    //BufferOvfl, ColErr, ParityErr, ProtocolErr
+    if ((readMFRC522(ErrorReg) & 0x1B) || readMFRC522(FIFOLevelReg) != 2) {
+        return false;
+    }
+
+    atqa[0] = readMFRC522(FIFODataReg);
+    atqa[1] = readMFRC522(FIFODataReg);
+    return true;
+}
+
+void RFID::clearCardIrq()
+{
+    writeMFRC522(CommIrqReg, 0x7F);
+    writeMFRC522(CommandReg, PCD_IDLE);
+    writeMFRC522(BitFramingReg, 0x00);
+}
+
 inline __attribute__((always_inline))
 uint8_t RFID::softSPITranser(uint8_t data) {
 
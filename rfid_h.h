@@ -125,12 +125,14 @@ class RFID
     RFID(uint8_t chipSelectPin, uint8_t NRSTPD, uint8_t mosiPin, uint8_t misoPin, uint8_t clockPin);
 
 	bool isCard();
+	bool wakeCard();
 	bool readCardSerial();
 
     void init();
 	void reset();
 	void writeMFRC522(uint8_t addr, uint8_t val);
 	void antennaOn(void);
+	void antennaOff(void);
 	uint8_t readMFRC522(uint8_t addr);
 	void setBitMask(uint8_t reg, uint8_t mask);
 	void clearBitMask(uint8_t reg, uint8_t mask);
@@ -143,6 +145,12 @@ class RFID
 	uint8_t write(uint8_t blockAddr, uint8_t *writeData);
 	void halt();
 
+	// Card detection through the IRQ pin instead of polling the status registers
+	void armCardIrq();
+	bool cardIrqPending();
+	bool readCardIrqAnswer(uint8_t *atqa);
+	void clearCardIrq();
+
 	uint8_t serNum[5];       // Constante para guardar el numero de serie leido.
 	uint8_t AserNum[5];      // Constante para guardar el numero d serie de la secion actual.
 
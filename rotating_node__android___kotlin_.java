@@ -8,16 +8,38 @@ import com.google.ar.sceneform.math.Quaternion
 import com.google.ar.sceneform.math.QuaternionEvaluator
 import com.google.ar.sceneform.math.Vector3
 
-class RotatingNode(val clockwise: Boolean = false,
-                   val axisTiltDeg : Float = 0.0f,
-                   val rotationSpeedMultipler : Float = 1.0f,
-                   val degreesPerSecond: Float = 90.0f) : Node() {
+//SHARED_CLOCK works out the orientation from SceneClock every frame, ANIMATOR runs one ObjectAnimator per node
+enum class RotationMode {
+    SHARED_CLOCK,
+    ANIMATOR
+}
+
+class RotatingNode(var clockwise: Boolean = false,
+                   var axisTiltDeg : Float = 0.0f,
+                   var rotationSpeedMultipler : Float = 1.0f,
+                   var degreesPerSecond: Float = 90.0f,
+                   val rotationMode: RotationMode = RotationMode.SHARED_CLOCK) : Node() {
 
     private var animator : ObjectAnimator? = null
 
+    //Reused every frame so the shared clock mode doesn't allocate
+    private val orientationComponents = FloatArray(4)
+    private val orientation = Quaternion()
+
     override fun onUpdate(frameTime: FrameTime?) {
         super.onUpdate(frameTime)
 
+        val startTime = System.nanoTime()
+        updateRotation()
+        Metrics.rotatingUpdate.record(System.nanoTime() - startTime)
+    }
+
+    private fun updateRotation() {
+        if( rotationMode == RotationMode.SHARED_CLOCK ) {
+            updateFromClock()
+            return
+        }
+
         if (animator == null) {
             return
         }
@@ -35,6 +57,11 @@ class RotatingNode(val clockwise: Boolean = false,
     }
 
     override fun onActivate() {
+        if( rotationMode == RotationMode.SHARED_CLOCK ) {
+            updateFromClock()
+            return
+        }
+
         if (animator != null) {
             return
         }
@@ -54,6 +81,29 @@ class RotatingNode(val clockwise: Boolean = false,
         animator = null
     }
 
+    //Changes how the node spins without rebuilding it
+    fun configure(clockwise: Boolean, axisTiltDeg: Float, rotationSpeedMultipler: Float, degreesPerSecond: Float) {
+        this.clockwise = clockwise
+        this.axisTiltDeg = axisTiltDeg
+        this.rotationSpeedMultipler = rotationSpeedMultipler
+        this.degreesPerSecond = degreesPerSecond
+
+        //The animator bakes the orientations in, so it has to be recreated
+        if( rotationMode == RotationMode.ANIMATOR && animator != null ) {
+            onDeactivate()
+            onActivate()
+        }
+    }
+
+    private fun updateFromClock() {
+        val angle = OrientationMath.spinAngle(SceneClock.elapsedSeconds, degreesPerSecond, rotationSpeedMultipler, clockwise)
+        OrientationMath.tiltedSpin(axisTiltDeg, angle, orientationComponents)
+        orientation.set(orientationComponents[0], orientationComponents[1], orientationComponents[2], orientationComponents[3])
+
+        //Node copies the value, so the same quaternion can be handed over every frame
+        localRotation = orientation
+    }
+
     private fun getAnimationDuration(): Long {
         return (1000 * 360 / (degreesPerSecond * rotationSpeedMultipler)).toLong()
     }
@@ -0,0 +1,27 @@
+package ptrprograms.com.arboardgame
+
+//One clock for the whole scene, advanced once per frame. Nodes read it instead of running their own animators.
+object SceneClock {
+
+    @Volatile
+    var elapsedSeconds = 0.0
+        private set
+
+    //Scales how fast scene time passes relative to real time
+    @Volatile
+    var timeScale = 1.0f
+
+    fun tick(deltaSeconds: Float) {
+        elapsedSeconds += deltaSeconds * timeScale
+    }
+
+    //Follows another device's clock, e.g. the host of a shared session
+    fun sync(elapsedSeconds: Double, timeScale: Float) {
+        this.elapsedSeconds = elapsedSeconds
+        this.timeScale = timeScale
+    }
+
+    fun reset() {
+        elapsedSeconds = 0.0
+    }
+}
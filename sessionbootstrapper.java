@@ -0,0 +1,77 @@
+package ptrprograms.com.arboardgame
+
+import android.content.Context
+import android.os.SystemClock
+import android.util.Log
+import com.google.ar.core.Config
+import com.google.ar.core.Session
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+
+//Creates and configures the ARCore session on a background thread, so the UI thread only has to hand it to the
+//scene view. Installing ARCore and asking for the camera still have to happen on the UI thread first.
+class SessionBootstrapper(
+    val context: Context,
+    val profile: SessionProfile = SessionProfile.BALANCED,
+    //The app only places things on floors and tables
+    val verticalPlanes: Boolean = false,
+    //Only shared sessions that host or resolve cloud anchors need this
+    val cloudAnchors: Boolean = false,
+    private val executor: Executor
+) {
+
+    private var pending: CompletableFuture<Session>? = null
+
+    var setupTimeMs = 0L
+        private set
+
+    //Starts preparing the session, or returns the one already under way
+    @Synchronized
+    fun prepare() : CompletableFuture<Session> {
+        val existing = pending
+        if( existing != null ) {
+            return existing
+        }
+
+        val future = CompletableFuture<Session>()
+        pending = future
+        executor.execute {
+            try {
+                future.complete(createSession())
+            } catch( e: Exception ) {
+                future.completeExceptionally(e)
+            }
+        }
+        return future
+    }
+
+    //Forgets a failed or handed over session so the next prepare() starts from scratch
+    @Synchronized
+    fun reset() {
+        pending = null
+    }
+
+    private fun createSession() : Session {
+        val startTime = SystemClock.elapsedRealtime()
+        val session = Session(context)
+
+        val configs = session.supportedCameraConfigs
+        val chosen = SessionProfile.chooseConfig(IntArray(configs.size) { configs[it].imageSize.height }, profile)
+        if( chosen != SessionProfile.NO_CONFIG ) {
+            session.cameraConfig = configs[chosen]
+        }
+
+        val config = Config(session)
+        //Needed by Sceneform
+        config.updateMode = Config.UpdateMode.LATEST_CAMERA_IMAGE
+        config.lightEstimationMode = if( profile.lightEstimation ) Config.LightEstimationMode.AMBIENT_INTENSITY else Config.LightEstimationMode.DISABLED
+        config.planeFindingMode = if( verticalPlanes ) Config.PlaneFindingMode.HORIZONTAL_AND_VERTICAL else Config.PlaneFindingMode.HORIZONTAL
+        config.cloudAnchorMode = if( cloudAnchors ) Config.CloudAnchorMode.ENABLED else Config.CloudAnchorMode.DISABLED
+        session.configure(config)
+
+        setupTimeMs = SystemClock.elapsedRealtime() - startTime
+        Log.i("SessionBootstrapper", "$profile session ready in ${setupTimeMs}ms with a " +
+                "${session.cameraConfig.imageSize.width}x${session.cameraConfig.imageSize.height} camera image")
+        return session
+    }
+}
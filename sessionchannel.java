@@ -0,0 +1,84 @@
+package ptrprograms.com.arboardgame
+
+//Carries a shared session's messages from its host to every viewer. Keyframes are kept by the channel so a
+//viewer that joins late starts from the latest one.
+interface SessionChannel {
+    fun publish(message: String, isKeyframe: Boolean)
+    fun subscribe(listener: (String) -> Unit)
+    fun close()
+}
+
+//In-process stand-in for the realtime database, used to simulate many viewers on one machine. Messages are
+//handed to every subscriber in turn on the publishing thread, the way a single fan-out would serve them.
+class LocalSessionChannel : SessionChannel {
+
+    private class Subscriber(val listener: (String) -> Unit) {
+        var bytes = 0L
+        var messages = 0L
+    }
+
+    private val subscribers = ArrayList<Subscriber>()
+    private var latestKeyframe: String? = null
+
+    //From publish() to each subscriber being handed the message
+    val deliveryLatency = LatencyHistogram()
+
+    var published = 0L
+        private set
+    var publishedBytes = 0L
+        private set
+
+    override fun publish(message: String, isKeyframe: Boolean) {
+        val startTime = System.nanoTime()
+        val targets: List<Subscriber>
+        synchronized(this) {
+            if( isKeyframe ) {
+                latestKeyframe = message
+            }
+            published++
+            publishedBytes += message.length
+            targets = ArrayList(subscribers)
+        }
+
+        for( subscriber in targets ) {
+            subscriber.listener(message)
+            subscriber.bytes += message.length
+            subscriber.messages++
+            deliveryLatency.record(System.nanoTime() - startTime)
+        }
+    }
+
+    override fun subscribe(listener: (String) -> Unit) {
+        val keyframe: String?
+        synchronized(this) {
+            subscribers.add(Subscriber(listener))
+            keyframe = latestKeyframe
+        }
+
+        if( keyframe != null ) {
+            listener(keyframe)
+        }
+    }
+
+    override fun close() {
+        synchronized(this) {
+            subscribers.clear()
+        }
+    }
+
+    @Synchronized
+    fun subscriberCount() : Int {
+        return subscribers.size
+    }
+
+    //Bytes of base64 text handed to one subscriber so far
+    @Synchronized
+    fun bytesDelivered(subscriber: Int) : Long {
+        return subscribers[subscriber].bytes
+    }
+
+    @Synchronized
+    fun messagesDelivered(subscriber: Int) : Long {
+        return subscribers[subscriber].messages
+    }
+}
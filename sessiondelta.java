@@ -0,0 +1,171 @@
+package ptrprograms.com.arboardgame
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.Base64
+
+//One update from the host of a shared session to its viewers, sent base64 encoded over the realtime channel.
+//Only pieces that changed are included unless it is a keyframe, which carries the whole board.
+//Big endian layout:
+//
+//  0      version
+//  1      flags (bit 0: keyframe, bit 1: anchor id follows the pieces)
+//  2..5   sequence number
+//  6..13  host time, epoch ms
+//  14..21 scene clock seconds, so every viewer's planets spin in step with the host's
+//  22..25 scene time scale
+//  26     piece count
+//  27..   per piece: id (2 bytes), catalog id of its planet (1 byte, -1 when empty)
+//  then   anchor id length (1 byte) and ASCII anchor id when flagged
+//
+//An instance is reused for every message, so decoding doesn't allocate beyond the anchor id.
+class SessionDelta(val maxPieces: Int = MAX_PIECES) {
+
+    companion object {
+        const val VERSION = 1
+        const val HEADER_SIZE = 27
+        const val PIECE_SIZE = 3
+        const val MAX_PIECES = 255
+        const val MAX_ANCHOR_ID_LENGTH = 255
+
+        const val FLAG_KEYFRAME = 0x01
+        const val FLAG_ANCHOR = 0x02
+
+        const val NO_PLANET = -1
+    }
+
+    var sequence = 0L
+    var hostTimeMs = 0L
+    var sceneSeconds = 0.0
+    var timeScale = 1.0f
+    var isKeyframe = false
+    var anchorId: String? = null
+
+    var pieceCount = 0
+        private set
+    val pieceIds = IntArray(maxPieces)
+    val planetIds = IntArray(maxPieces)
+
+    private var scratch = ByteBuffer.allocate(HEADER_SIZE + maxPieces * PIECE_SIZE + 1 + MAX_ANCHOR_ID_LENGTH)
+
+    init {
+        if( maxPieces < 1 || maxPieces > MAX_PIECES ) {
+            throw IllegalArgumentException("maxPieces must be between 1 and $MAX_PIECES")
+        }
+    }
+
+    fun clear() {
+        sequence = 0L
+        hostTimeMs = 0L
+        sceneSeconds = 0.0
+        timeScale = 1.0f
+        isKeyframe = false
+        anchorId = null
+        pieceCount = 0
+    }
+
+    //Returns false once the message is full
+    fun addPiece(pieceId: Int, planetId: Int) : Boolean {
+        if( pieceCount == maxPieces ) {
+            return false
+        }
+        if( pieceId < 0 || pieceId > 0xffff || planetId < NO_PLANET || planetId > Byte.MAX_VALUE ) {
+            throw IllegalArgumentException("Piece $pieceId or planet $planetId out of range")
+        }
+
+        pieceIds[pieceCount] = pieceId
+        planetIds[pieceCount] = planetId
+        pieceCount++
+        return true
+    }
+
+    fun encodedSize() : Int {
+        val anchor = anchorId
+        return HEADER_SIZE + pieceCount * PIECE_SIZE + if( anchor == null ) 0 else 1 + anchor.length
+    }
+
+    fun encode() : ByteArray {
+        val anchor = anchorId
+        if( anchor != null && anchor.length > MAX_ANCHOR_ID_LENGTH ) {
+            throw IllegalArgumentException("Anchor id is too long")
+        }
+
+        val buffer = scratch
+        buffer.clear()
+        buffer.order(ByteOrder.BIG_ENDIAN)
+        buffer.put(VERSION.toByte())
+        buffer.put(((if( isKeyframe ) FLAG_KEYFRAME else 0) or (if( anchor != null ) FLAG_ANCHOR else 0)).toByte())
+        buffer.putInt(sequence.toInt())
+        buffer.putLong(hostTimeMs)
+        buffer.putDouble(sceneSeconds)
+        buffer.putFloat(timeScale)
+        buffer.put(pieceCount.toByte())
+        for( i in 0 until pieceCount ) {
+            buffer.putShort(pieceIds[i].toShort())
+            buffer.put(planetIds[i].toByte())
+        }
+        if( anchor != null ) {
+            buffer.put(anchor.length.toByte())
+            buffer.put(anchor.toByteArray(Charsets.US_ASCII))
+        }
+
+        return buffer.array().copyOf(buffer.position())
+    }
+
+    fun encodeBase64() : String {
+        return Base64.getEncoder().encodeToString(encode())
+    }
+
+    //Replaces this message's contents. Returns false, leaving it cleared, if the bytes aren't a valid message.
+    fun decode(bytes: ByteArray, length: Int = bytes.size) : Boolean {
+        clear()
+        if( length < HEADER_SIZE || bytes[0].toInt() != VERSION ) {
+            return false
+        }
+
+        val buffer = ByteBuffer.wrap(bytes, 0, length).order(ByteOrder.BIG_ENDIAN)
+        buffer.get()
+        val flags = buffer.get().toInt()
+        val count = buffer.get(26).toInt() and 0xff
+        if( count > maxPieces || length < HEADER_SIZE + count * PIECE_SIZE ) {
+            return false
+        }
+
+        sequence = buffer.getInt().toLong() and 0xffffffffL
+        hostTimeMs = buffer.getLong()
+        sceneSeconds = buffer.getDouble()
+        timeScale = buffer.getFloat()
+        buffer.get()
+        for( i in 0 until count ) {
+            pieceIds[i] = buffer.getShort().toInt() and 0xffff
+            planetIds[i] = buffer.get().toInt()
+        }
+        pieceCount = count
+        isKeyframe = (flags and FLAG_KEYFRAME) != 0
+
+        if( (flags and FLAG_ANCHOR) != 0 ) {
+            if( !buffer.hasRemaining() ) {
+                clear()
+                return false
+            }
+            val anchorLength = buffer.get().toInt() and 0xff
+            if( buffer.remaining() < anchorLength ) {
+                clear()
+                return false
+            }
+            anchorId = String(bytes, buffer.position(), anchorLength, Charsets.US_ASCII)
+        }
+
+        return true
+    }
+
+    fun decodeBase64(text: String) : Boolean {
+        val bytes = try {
+            Base64.getDecoder().decode(text)
+        } catch( e: IllegalArgumentException ) {
+            clear()
+            return false
+        }
+        return decode(bytes)
+    }
+}
@@ -0,0 +1,117 @@
+package ptrprograms.com.arboardgame
+
+import java.util.Random
+
+//Runs a host and a number of viewers over a LocalSessionChannel on one machine, to see how delivery latency and
+//per viewer bandwidth grow with the number of phones at a table. Pure JVM, so it runs without a device.
+class SessionFanOutSimulation(
+    val viewers: Int,
+    val pieces: Int = DEFAULT_PIECES,
+    val planets: Int = DEFAULT_PLANETS,
+    val seed: Long = 0L
+) {
+
+    companion object {
+        const val DEFAULT_PIECES = 8
+        const val DEFAULT_PLANETS = 9
+    }
+
+    class Result(
+        val viewers: Int,
+        val updates: Int,
+        val messagesPerViewer: Long,
+        val bytesPerViewer: Long,
+        //Averaged over the messages each viewer received
+        val bytesPerMessage: Long,
+        val gaps: Long,
+        //publish() to a viewer being handed the message, nanoseconds
+        val deliveryP50: Long,
+        val deliveryP99: Long,
+        //Last viewer served, the one that waits for everybody else
+        val deliveryMax: Long
+    ) {
+        override fun toString() : String {
+            return "viewers=$viewers updates=$updates messages/viewer=$messagesPerViewer bytes/viewer=$bytesPerViewer " +
+                    "bytes/message=$bytesPerMessage gaps=$gaps p50=${deliveryP50}ns p99=${deliveryP99}ns max=${deliveryMax}ns"
+        }
+    }
+
+    private class NoOpListener : SharedSessionViewer.Listener {
+        var changes = 0L
+
+        override fun onAnchor(anchorId: String) {}
+
+        override fun onPieces(pieces: Map<Int, Int>) {
+            changes += pieces.size
+        }
+
+        override fun onClock(sceneSeconds: Double, timeScale: Float) {}
+    }
+
+    val channel = LocalSessionChannel()
+    private var nowMs = 0L
+    private val host = SharedSessionHost(channel, { nowMs })
+    private val clients = ArrayList<SharedSessionViewer>()
+    private val random = Random(seed)
+    private val layout = HashMap<Int, Int>()
+
+    init {
+        if( viewers < 1 || pieces < 1 || pieces > SessionDelta.MAX_PIECES || planets < 1 ) {
+            throw IllegalArgumentException("Need at least one viewer, piece and planet")
+        }
+
+        for( piece in 0 until pieces ) {
+            layout[piece] = piece % planets
+        }
+        host.setAnchor("local:0,0,0,0,0,0,1")
+        host.updatePieces(layout)
+        host.publish(0.0, 1.0f)
+
+        for( i in 0 until viewers ) {
+            val viewer = SharedSessionViewer({ nowMs }, NoOpListener())
+            clients.add(viewer)
+            channel.subscribe { viewer.onMessage(it) }
+        }
+    }
+
+    //Moves changesPerUpdate random pieces every updateIntervalMs of simulated time, with the host's clock
+    //keyframes in between, then reports what each viewer received
+    fun run(updates: Int, changesPerUpdate: Int = 1, updateIntervalMs: Long = 100L) : Result {
+        channel.deliveryLatency.reset()
+        val startBytes = channel.bytesDelivered(0)
+        val startMessages = channel.messagesDelivered(0)
+
+        for( update in 0 until updates ) {
+            for( change in 0 until changesPerUpdate ) {
+                val piece = random.nextInt(pieces)
+                if( random.nextInt(8) == 0 ) {
+                    layout.remove(piece)
+                } else {
+                    layout[piece] = random.nextInt(planets)
+                }
+            }
+
+            nowMs += updateIntervalMs
+            host.updatePieces(layout)
+            host.publish(nowMs / 1000.0, 1.0f)
+            host.tick(nowMs / 1000.0, 1.0f)
+        }
+
+        val messages = channel.messagesDelivered(0) - startMessages
+        val bytes = channel.bytesDelivered(0) - startBytes
+        return Result(
+            viewers,
+            updates,
+            messages,
+            bytes,
+            if( messages == 0L ) 0L else bytes / messages,
+            clients.map { it.gaps }.sum(),
+            channel.deliveryLatency.percentile(50.0),
+            channel.deliveryLatency.percentile(99.0),
+            channel.deliveryLatency.max())
+    }
+
+    fun close() {
+        channel.close()
+    }
+}
@@ -0,0 +1,44 @@
+package ptrprograms.com.arboardgame
+
+//How the ARCore session trades image quality for latency. The CPU image ARCore tracks on is picked by height:
+//the smallest one at or above minImageHeight, or the largest available when none is that big.
+enum class SessionProfile(
+    val minImageHeight: Int,
+    val preferLargest: Boolean,
+    //Sceneform uses it to light the models. Off saves per frame image analysis.
+    val lightEstimation: Boolean
+) {
+    LOW_LATENCY(0, false, false),
+    BALANCED(480, false, true),
+    QUALITY(0, true, true);
+
+    companion object {
+        const val NO_CONFIG = -1
+
+        //Index of the config to use given each config's CPU image height, or NO_CONFIG if there are none
+        fun chooseConfig(imageHeights: IntArray, profile: SessionProfile) : Int {
+            var chosen = NO_CONFIG
+            for( i in imageHeights.indices ) {
+                if( chosen == NO_CONFIG || isBetter(imageHeights[i], imageHeights[chosen], profile) ) {
+                    chosen = i
+                }
+            }
+            return chosen
+        }
+
+        private fun isBetter(height: Int, current: Int, profile: SessionProfile) : Boolean {
+            if( profile.preferLargest ) {
+                return height > current
+            }
+
+            val fits = height >= profile.minImageHeight
+            val currentFits = current >= profile.minImageHeight
+            if( fits != currentFits ) {
+                return fits
+            }
+
+            //Smallest that fits, or the largest of the ones that don't
+            return if( fits ) height < current else height > current
+        }
+    }
+}
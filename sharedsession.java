@@ -0,0 +1,230 @@
+package ptrprograms.com.arboardgame
+
+//What this device does in a shared session: nothing, place the board and publish it, or follow a host
+enum class SharedRole { NONE, HOST, VIEWER }
+
+//Publishes the board of a shared session. Each message carries only the pieces that changed since the one
+//before, along with the scene clock. A keyframe with the whole board goes out every keyframeInterval messages
+//and, through tick(), at least every syncIntervalMs however busy the board is, so a viewer that missed a message
+//is put right within syncIntervalMs. A keyframe has to fit in one message, so a board holds at most
+//SessionDelta.MAX_PIECES pieces.
+class SharedSessionHost(
+    private val channel: SessionChannel,
+    private val clock: () -> Long,
+    val keyframeInterval: Int = DEFAULT_KEYFRAME_INTERVAL,
+    val syncIntervalMs: Long = DEFAULT_SYNC_INTERVAL_MS
+) {
+
+    companion object {
+        const val DEFAULT_KEYFRAME_INTERVAL = 20
+        const val DEFAULT_SYNC_INTERVAL_MS = 2000L
+    }
+
+    //pieceId -> catalog id of the planet on it, as it should be
+    private val layout = HashMap<Int, Int>()
+    //Pieces whose planet changed since the last message
+    private val changed = LinkedHashSet<Int>()
+
+    private var anchorId: String? = null
+    private var isAnchorChanged = false
+
+    private val message = SessionDelta()
+    private var sequence = 0L
+    private var sinceKeyframe = 0
+    private var lastKeyframeMs = 0L
+
+    var deltas = 0L
+        private set
+    var keyframes = 0L
+        private set
+    var publishedBytes = 0L
+        private set
+
+    init {
+        if( keyframeInterval < 1 || syncIntervalMs < 1 ) {
+            throw IllegalArgumentException("keyframeInterval and syncIntervalMs must be at least 1")
+        }
+    }
+
+    @Synchronized
+    fun setAnchor(anchorId: String) {
+        if( anchorId != this.anchorId ) {
+            this.anchorId = anchorId
+            isAnchorChanged = true
+        }
+    }
+
+    //Takes the full pieceId -> catalog id layout and works out what changed. Nothing is sent until publish().
+    @Synchronized
+    fun updatePieces(pieces: Map<Int, Int>) {
+        if( pieces.size > message.maxPieces ) {
+            throw IllegalArgumentException("A shared board holds at most ${message.maxPieces} pieces, got ${pieces.size}")
+        }
+
+        for( (pieceId, planetId) in pieces ) {
+            if( layout.put(pieceId, planetId) != planetId ) {
+                changed.add(pieceId)
+            }
+        }
+
+        val iterator = layout.keys.iterator()
+        while( iterator.hasNext() ) {
+            val pieceId = iterator.next()
+            if( !pieces.containsKey(pieceId) ) {
+                iterator.remove()
+                changed.add(pieceId)
+            }
+        }
+    }
+
+    //Sends whatever changed, as a keyframe when one is due. Returns false if there was nothing to send.
+    fun publish(sceneSeconds: Double, timeScale: Float) : Boolean {
+        return send(sceneSeconds, timeScale, false)
+    }
+
+    //Call regularly, e.g. once a frame. Sends a keyframe when none has gone out for syncIntervalMs, deltas or not.
+    fun tick(sceneSeconds: Double, timeScale: Float) : Boolean {
+        synchronized(this) {
+            if( clock() - lastKeyframeMs < syncIntervalMs ) {
+                return false
+            }
+        }
+        return send(sceneSeconds, timeScale, true)
+    }
+
+    private fun send(sceneSeconds: Double, timeScale: Float, forceKeyframe: Boolean) : Boolean {
+        val text: String
+        val isKeyframe: Boolean
+        synchronized(this) {
+            isKeyframe = forceKeyframe || sequence == 0L || sinceKeyframe >= keyframeInterval - 1 ||
+                    changed.size > message.maxPieces
+            if( !isKeyframe && changed.isEmpty() && !isAnchorChanged ) {
+                return false
+            }
+
+            val now = clock()
+            message.clear()
+            message.sequence = sequence++
+            message.hostTimeMs = now
+            message.sceneSeconds = sceneSeconds
+            message.timeScale = timeScale
+            message.isKeyframe = isKeyframe
+
+            if( isKeyframe ) {
+                //The layout always fits, updatePieces turns away anything bigger
+                for( (pieceId, planetId) in layout ) {
+                    message.addPiece(pieceId, planetId)
+                }
+                message.anchorId = anchorId
+                sinceKeyframe = 0
+                lastKeyframeMs = now
+                keyframes++
+            } else {
+                for( pieceId in changed ) {
+                    message.addPiece(pieceId, layout[pieceId] ?: SessionDelta.NO_PLANET)
+                }
+                if( isAnchorChanged ) {
+                    message.anchorId = anchorId
+                }
+                sinceKeyframe++
+                deltas++
+            }
+
+            changed.clear()
+            isAnchorChanged = false
+            text = message.encodeBase64()
+            publishedBytes += text.length
+        }
+
+        channel.publish(text, isKeyframe)
+        return true
+    }
+
+    override fun toString() : String {
+        return "SharedSessionHost(deltas=$deltas, keyframes=$keyframes, bytes=$publishedBytes)"
+    }
+}
+
+//Follows a shared session's host. Deltas are applied on top of the last keyframe, older messages are dropped
+//and a keyframe always wins, even an older one, since that means the host has started over. Deltas that arrive
+//before the first keyframe are dropped as stale, they only make sense on top of a board this viewer doesn't have.
+class SharedSessionViewer(
+    private val clock: () -> Long,
+    private val listener: Listener,
+    //Host clock to message applied, only meaningful when both clocks agree, e.g. in a simulation
+    val latency: LatencyHistogram? = null
+) {
+
+    interface Listener {
+        fun onAnchor(anchorId: String)
+        //Full pieceId -> catalog id layout after each change
+        fun onPieces(pieces: Map<Int, Int>)
+        fun onClock(sceneSeconds: Double, timeScale: Float)
+    }
+
+    private val message = SessionDelta()
+    private val pieces = HashMap<Int, Int>()
+    private var anchorId: String? = null
+    private var lastSequence = -1L
+
+    var applied = 0L
+        private set
+    var stale = 0L
+        private set
+    //Deltas that arrived after a missing one, the next keyframe fixes the board up
+    var gaps = 0L
+        private set
+    var invalid = 0L
+        private set
+    var receivedBytes = 0L
+        private set
+
+    @Synchronized
+    fun onMessage(text: String) {
+        receivedBytes += text.length
+        if( !message.decodeBase64(text) ) {
+            invalid++
+            return
+        }
+
+        val sequence = message.sequence
+        if( !message.isKeyframe ) {
+            if( lastSequence < 0 || sequence <= lastSequence ) {
+                stale++
+                return
+            }
+            if( sequence != lastSequence + 1 ) {
+                gaps++
+            }
+        } else {
+            pieces.clear()
+        }
+
+        for( i in 0 until message.pieceCount ) {
+            if( message.planetIds[i] == SessionDelta.NO_PLANET ) {
+                pieces.remove(message.pieceIds[i])
+            } else {
+                pieces[message.pieceIds[i]] = message.planetIds[i]
+            }
+        }
+
+        lastSequence = sequence
+        applied++
+        latency?.record((clock() - message.hostTimeMs) * 1000000)
+
+        val anchor = message.anchorId
+        if( anchor != null && anchor != anchorId ) {
+            anchorId = anchor
+            listener.onAnchor(anchor)
+        }
+
+        listener.onClock(message.sceneSeconds, message.timeScale)
+        if( message.isKeyframe || message.pieceCount > 0 ) {
+            listener.onPieces(pieces)
+        }
+    }
+
+    override fun toString() : String {
+        return "SharedSessionViewer(applied=$applied, stale=$stale, gaps=$gaps, invalid=$invalid, bytes=$receivedBytes)"
+    }
+}
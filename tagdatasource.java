@@ -0,0 +1,17 @@
+package ptrprograms.com.arboardgame
+
+//What a game piece last reported: the planet its tag maps to and when it was read (epoch ms, 0 if unknown)
+class TagReading(val planet: String?, val timestampMs: Long = 0L)
+
+//Where tag updates come from. Firebase in the app, a replayed trace when load testing.
+interface TagDataSource {
+
+    //Calls listener with every update for a single piece
+    fun observePiece(pieceId: String, listener: (TagReading) -> Unit)
+
+    //Calls listener with the full pieceId -> reading snapshot whenever any piece changes
+    fun observeBoard(listener: (Map<String, TagReading>) -> Unit)
+
+    //Stops delivering updates to every listener
+    fun close()
+}
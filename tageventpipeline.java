@@ -0,0 +1,116 @@
+package ptrprograms.com.arboardgame
+
+//Sits between Firebase and the scene so a flapping reader doesn't tear the scene down on every publish.
+//Values have to stay put for a short while before they are delivered, repeats are ignored, "none" has to
+//hold for longer than a normal value and only the latest pending value is ever delivered.
+class TagEventPipeline(
+    val debounceMs: Long = DEFAULT_DEBOUNCE_MS,
+    val noneHoldMs: Long = DEFAULT_NONE_HOLD_MS,
+    private val clock: () -> Long,
+    private val scheduler: (delayMs: Long, task: () -> Unit) -> Unit,
+    private val deliver: (String) -> Unit
+) {
+
+    companion object {
+        const val NONE = "none"
+        const val DEFAULT_DEBOUNCE_MS = 150L
+        //The Xenon backs off to one scan a second when idle, so a missed read shouldn't count as the card leaving
+        const val DEFAULT_NONE_HOLD_MS = 2500L
+    }
+
+    private var delivered: String? = null
+    private var pending: String? = null
+    private var pendingSince = 0L
+
+    //Due time of the last flush handed to the scheduler, -1 if none. Flushes that come up early are dropped
+    //when a later one is still to come instead of piling up under a reader that never settles.
+    private var flushAtMs = -1L
+
+    var received = 0L
+        private set
+    //Repeats of a value that is already pending or on screen
+    var dropped = 0L
+        private set
+    //Pending values replaced by a newer one before they were delivered
+    var coalesced = 0L
+        private set
+    var deliveredCount = 0L
+        private set
+
+    init {
+        if( debounceMs < 0 || noneHoldMs < 0 ) {
+            throw IllegalArgumentException("Delays can't be negative")
+        }
+    }
+
+    @Synchronized
+    fun offer(value: String) {
+        received++
+
+        if( value == pending || (pending == null && value == delivered) ) {
+            dropped++
+            return
+        }
+
+        if( pending != null ) {
+            coalesced++
+        }
+
+        if( value == delivered ) {
+            //The reader flapped back to what is already shown, nothing to do
+            pending = null
+            return
+        }
+
+        pending = value
+        pendingSince = clock()
+
+        //A flush already due by then will find the new value and wait out the rest
+        val delay = delayFor(value)
+        if( flushAtMs < 0 || pendingSince + delay < flushAtMs ) {
+            flushAtMs = pendingSince + delay
+            scheduler(delay) { flush() }
+        }
+    }
+
+    //Delivers the pending value once it has been stable for long enough
+    fun flush() {
+        val value: String
+        synchronized(this) {
+            val now = clock()
+            if( flushAtMs <= now ) {
+                flushAtMs = -1L
+            }
+
+            val current = pending ?: return
+            val dueMs = pendingSince + delayFor(current)
+            if( dueMs > now ) {
+                if( flushAtMs < 0 || flushAtMs > dueMs ) {
+                    flushAtMs = dueMs
+                    scheduler(dueMs - now) { flush() }
+                }
+                return
+            }
+
+            pending = null
+            delivered = current
+            deliveredCount++
+            value = current
+        }
+
+        deliver(value)
+    }
+
+    @Synchronized
+    fun lastDelivered() : String? {
+        return delivered
+    }
+
+    private fun delayFor(value: String) : Long {
+        return if( value == NONE ) noneHoldMs else debounceMs
+    }
+
+    override fun toString() : String {
+        return "TagEventPipeline(received=$received, delivered=$deliveredCount, dropped=$dropped, coalesced=$coalesced)"
+    }
+}
@@ -0,0 +1,141 @@
+package ptrprograms.com.arboardgame
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.Base64
+
+//Fixed size frame a game piece publishes for every read, sent base64 encoded through Mesh, Particle and Firebase.
+//Big endian layout, 24 bytes so the base64 text is exactly 32 characters with no padding:
+//
+//  0      version
+//  1      flags (bit 0: card present)
+//  2..3   piece id
+//  4      uid length
+//  5..11  uid, zero padded
+//  12..15 sequence number
+//  16..23 read time, epoch ms
+//
+//An instance is a reusable view over a buffer: wrap() it over the bytes and read the fields in place.
+class TagFrame {
+
+    companion object {
+        const val SIZE = 24
+        const val BASE64_LENGTH = 32
+        const val VERSION = 1
+        const val MAX_UID_LENGTH = 7
+
+        const val FLAG_PRESENT = 0x01
+
+        private const val VERSION_OFFSET = 0
+        private const val FLAGS_OFFSET = 1
+        private const val PIECE_ID_OFFSET = 2
+        private const val UID_LENGTH_OFFSET = 4
+        private const val UID_OFFSET = 5
+        private const val SEQUENCE_OFFSET = 12
+        private const val TIMESTAMP_OFFSET = 16
+
+        //Writes a frame at the buffer's current position and advances it
+        fun encode(out: ByteBuffer, pieceId: Int, uid: ByteArray, uidLength: Int, sequence: Long, timestampMs: Long, isPresent: Boolean) {
+            if( uidLength < 0 || uidLength > MAX_UID_LENGTH || uidLength > uid.size ) {
+                throw IllegalArgumentException("Invalid uid length $uidLength")
+            }
+
+            val start = out.position()
+            out.order(ByteOrder.BIG_ENDIAN)
+            out.put(start + VERSION_OFFSET, VERSION.toByte())
+            out.put(start + FLAGS_OFFSET, (if( isPresent ) FLAG_PRESENT else 0).toByte())
+            out.putShort(start + PIECE_ID_OFFSET, pieceId.toShort())
+            out.put(start + UID_LENGTH_OFFSET, uidLength.toByte())
+            for( i in 0 until MAX_UID_LENGTH ) {
+                out.put(start + UID_OFFSET + i, if( i < uidLength ) uid[i] else 0.toByte())
+            }
+            out.putInt(start + SEQUENCE_OFFSET, sequence.toInt())
+            out.putLong(start + TIMESTAMP_OFFSET, timestampMs)
+            out.position(start + SIZE)
+        }
+
+        fun encodeBase64(pieceId: Int, uid: ByteArray, uidLength: Int, sequence: Long, timestampMs: Long, isPresent: Boolean) : String {
+            val buffer = ByteBuffer.allocate(SIZE)
+            encode(buffer, pieceId, uid, uidLength, sequence, timestampMs, isPresent)
+            return Base64.getEncoder().encodeToString(buffer.array())
+        }
+    }
+
+    private var buffer: ByteBuffer = ByteBuffer.allocate(SIZE)
+    private var offset = 0
+
+    //Scratch space for decodeBase64 so repeated decodes don't allocate a new frame
+    private val decoded = ByteArray(SIZE)
+    private val decodedBuffer = ByteBuffer.wrap(decoded)
+
+    //Points this view at a frame starting at offset. Returns false if there isn't a valid frame there.
+    fun wrap(buffer: ByteBuffer, offset: Int = buffer.position()) : Boolean {
+        if( offset < 0 || buffer.limit() - offset < SIZE ) {
+            return false
+        }
+        if( buffer.get(offset + VERSION_OFFSET).toInt() != VERSION ) {
+            return false
+        }
+        if( (buffer.get(offset + UID_LENGTH_OFFSET).toInt() and 0xff) > MAX_UID_LENGTH ) {
+            return false
+        }
+
+        this.buffer = buffer
+        this.offset = offset
+        return true
+    }
+
+    //Decodes a base64 frame into this view's own buffer
+    fun decodeBase64(text: String) : Boolean {
+        if( text.length != BASE64_LENGTH ) {
+            return false
+        }
+
+        try {
+            if( Base64.getDecoder().decode(text.toByteArray(Charsets.US_ASCII), decoded) != SIZE ) {
+                return false
+            }
+        } catch( e: IllegalArgumentException ) {
+            return false
+        }
+
+        return wrap(decodedBuffer, 0)
+    }
+
+    val isPresent: Boolean
+        get() = (buffer.get(offset + FLAGS_OFFSET).toInt() and FLAG_PRESENT) != 0
+
+    val pieceId: Int
+        get() = buffer.getShort(offset + PIECE_ID_OFFSET).toInt() and 0xffff
+
+    val uidLength: Int
+        get() = buffer.get(offset + UID_LENGTH_OFFSET).toInt() and 0xff
+
+    val sequence: Long
+        get() = buffer.getInt(offset + SEQUENCE_OFFSET).toLong() and 0xffffffffL
+
+    val timestampMs: Long
+        get() = buffer.getLong(offset + TIMESTAMP_OFFSET)
+
+    fun uidByte(index: Int) : Int {
+        return buffer.get(offset + UID_OFFSET + index).toInt() and 0xff
+    }
+
+    //The uid as hex, two digits per byte as TagUidTable.key(hex) takes it. Allocates, so not for every frame.
+    fun uidHex() : String {
+        val hex = StringBuilder(uidLength * 2)
+        for( i in 0 until uidLength ) {
+            hex.append(String.format("%02x", uidByte(i)))
+        }
+        return hex.toString()
+    }
+
+    //The uid packed into one long for table lookups, see TagUidTable.key
+    fun uidKey() : Long {
+        var key = uidLength.toLong()
+        for( i in 0 until MAX_UID_LENGTH ) {
+            key = (key shl 8) or uidByte(i).toLong()
+        }
+        return key
+    }
+}
@@ -0,0 +1,93 @@
+package ptrprograms.com.arboardgame
+
+//Maps tag uids straight to catalog ids. Built once from the catalog as an open addressing table over
+//primitive arrays, so a lookup is a few array reads with no boxing or string work.
+class TagUidTable(entries: Map<Long, Int>) {
+
+    companion object {
+        private const val EMPTY = 0L
+        //Same as PlanetCatalog.UNKNOWN, kept here so the table has no Android dependencies
+        const val NOT_FOUND = -1
+
+        //Packs up to seven uid bytes and their count into one long, matching TagFrame.uidKey()
+        fun key(uid: ByteArray, uidLength: Int) : Long {
+            var key = uidLength.toLong()
+            for( i in 0 until TagFrame.MAX_UID_LENGTH ) {
+                key = (key shl 8) or (if( i < uidLength ) uid[i].toLong() and 0xff else 0L)
+            }
+            return key
+        }
+
+        //Parses a uid written as hex, two digits per byte, e.g. "a3f01b2c". Five bytes are a four byte uid followed
+        //by its check byte, the XOR of the four, which is how the RC522 reads it and the first firmware published it.
+        //Tags only come with 4, 7 or 10 byte uids, so a five byte one can't be anything else.
+        fun key(hex: String) : Long {
+            val length = hex.length / 2
+            if( hex.length % 2 != 0 || length == 0 || length > TagFrame.MAX_UID_LENGTH ) {
+                throw IllegalArgumentException("Invalid uid $hex")
+            }
+
+            val uid = ByteArray(length) { i -> Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16).toByte() }
+            if( length == 5 ) {
+                val check = uid[0].toInt() xor uid[1].toInt() xor uid[2].toInt() xor uid[3].toInt()
+                if( (check and 0xff) != (uid[4].toInt() and 0xff) ) {
+                    throw IllegalArgumentException("Check byte doesn't match in uid $hex")
+                }
+                return key(uid, 4)
+            }
+            return key(uid, length)
+        }
+    }
+
+    private val capacity: Int
+    private val keys: LongArray
+    private val values: IntArray
+
+    init {
+        var size = 4
+        while( size < entries.size * 2 ) {
+            size = size shl 1
+        }
+
+        capacity = size
+        keys = LongArray(size)
+        values = IntArray(size)
+
+        for( (key, value) in entries ) {
+            //A uid always has a non-zero length, so a zero key can't be a real entry
+            if( key == EMPTY ) {
+                continue
+            }
+
+            var slot = slotOf(key)
+            while( keys[slot] != EMPTY && keys[slot] != key ) {
+                slot = (slot + 1) and (capacity - 1)
+            }
+            keys[slot] = key
+            values[slot] = value
+        }
+    }
+
+    fun get(key: Long) : Int {
+        if( key == EMPTY ) {
+            return NOT_FOUND
+        }
+
+        var slot = slotOf(key)
+        while( keys[slot] != EMPTY ) {
+            if( keys[slot] == key ) {
+                return values[slot]
+            }
+            slot = (slot + 1) and (capacity - 1)
+        }
+
+        return NOT_FOUND
+    }
+
+    private fun slotOf(key: Long) : Int {
+        //Mix the bits so uids that only differ in their last bytes spread out
+        var hash = key * -0x61c8864680b583ebL
+        hash = hash xor (hash ushr 29)
+        return hash.toInt() and (capacity - 1)
+    }
+}